@@ -16,7 +16,10 @@
 package org.dubik.tasks;
 
 import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.PathManager;
 import com.intellij.openapi.components.ApplicationComponent;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.ui.Messages;
 import com.intellij.openapi.util.InvalidDataException;
 import com.intellij.openapi.util.NamedJDOMExternalizable;
 import com.intellij.openapi.util.WriteExternalException;
@@ -26,14 +29,64 @@ import org.jdom.Element;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
 
+import javax.swing.SwingUtilities;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
 /**
  * Replaces <code>TasksApplicationComponent</code> serializing with named one.
+ * Settings are kept in the xml file, tasks are kept by {@link TaskFileStorage}, so a save
+ * writes only changed tasks. It's the only component which loads tasks: they are read from
+ * the task files, or once from xml written by older releases, either from this component's
+ * file or from <code>TasksApplicationComponent</code>, and written to the task files on the
+ * next save. Tasks are kept in xml until task files are written. Settings of older releases
+ * are read right away, settings of this component replace them.
+ * <p/>
+ * Tasks are not loaded at startup. Loading starts in background when the tool window is shown
+ * for the first time, or tasks are loaded at once by {@link #ensureLoaded()} when something
+ * needs them earlier.
  *
  * @author Sergiy Dubovik
  */
 public class NamedTaskStorage implements ApplicationComponent, NamedJDOMExternalizable {
+    private static final Logger LOG = Logger.getInstance("#org.dubik.tasks.NamedTaskStorage");
+
     private ITaskModel taskModel;
     private TaskSettings taskSettings;
+    private TaskFileStorage taskStorage;
+    // old tasks which are not written to task files yet
+    private Element xmlElement;
+    private Element legacyElement;
+    private Future<TaskFileStorage.StoredTasks> loading;
+    private boolean loaded;
+    private boolean loadFailed;
+    private long loadTime;
+
+    public NamedTaskStorage() {
+    }
+
+    /**
+     * Creates storage which keeps task files in the directory.
+     *
+     * @param tasksApplication component with the task model and settings
+     * @param directory        directory of task files
+     */
+    NamedTaskStorage(TasksApplicationComponent tasksApplication, File directory) {
+        init(tasksApplication, directory);
+    }
+
+    /**
+     * Returns task storage of the application.
+     *
+     * @return task storage
+     */
+    @NotNull
+    public static NamedTaskStorage getInstance() {
+        return ApplicationManager.getApplication().getComponent(NamedTaskStorage.class);
+    }
 
     @NotNull
     @NonNls
@@ -42,9 +95,16 @@ public class NamedTaskStorage implements ApplicationComponent, NamedJDOMExternal
     }
 
     public void initComponent() {
+        if (taskModel == null && taskSettings == null)
+            init();
     }
 
     public void disposeComponent() {
+        if (loading != null)
+            loading.cancel(false);
+
+        if (taskStorage != null)
+            taskStorage.dispose();
     }
 
     @NonNls
@@ -56,21 +116,189 @@ public class NamedTaskStorage implements ApplicationComponent, NamedJDOMExternal
         if (taskModel == null && taskSettings == null)
             init();
 
-        SerializeSupport.readExternal(taskModel, taskSettings, element);
+        if (SerializeSupport.hasTasks(element))
+            xmlElement = element;
+
+        taskSettings.readExternal(element);
     }
 
     public void writeExternal(Element element) throws WriteExternalException {
         if (taskModel == null && taskSettings == null)
             init();
 
-        SerializeSupport.writeExternal(taskModel, taskSettings, element);
+        // dummy is written instead of old tasks, so they have to be moved to task files first
+        Element oldElement = getOldElement();
+        if (oldElement != null && !loaded)
+            ensureLoaded();
+
+        boolean tasksRead = loaded && !loadFailed;
+        if (oldElement != null && tasksRead && writeTaskFiles()) {
+            xmlElement = null;
+            legacyElement = null;
+            oldElement = null;
+        }
+
+        if (oldElement == null) {
+            SerializeSupport.writeDummy(element);
+            taskSettings.writeExternal(element);
+        } else if (tasksRead) {
+            // task files can't be written, tasks stay in xml until they are
+            SerializeSupport.writeExternal(taskModel, taskSettings, element);
+        } else {
+            // tasks can't be read, they are kept as they are
+            SerializeSupport.copyTasks(oldElement, element);
+            taskSettings.writeExternal(element);
+        }
+
+        if (tasksRead)
+            taskStorage.save();
+    }
+
+    /**
+     * Writes tasks read from xml to task files in the calling thread, since they are removed
+     * from xml right after that.
+     *
+     * @return <code>true</code> if task files are written
+     */
+    private boolean writeTaskFiles() {
+        try {
+            taskStorage.flush();
+        } catch (IOException e) {
+            LOG.warn("Tasks can't be moved to task files, they are kept in xml", e);
+            return false;
+        }
+
+        // flush doesn't write anything if it's interrupted
+        return taskStorage.exists();
+    }
+
+    private Element getOldElement() {
+        return xmlElement != null ? xmlElement : legacyElement;
+    }
+
+    /**
+     * Starts reading task files in background, tasks are added to the model on EDT when
+     * they are read. Old tasks kept in xml are already parsed, so they are loaded at once.
+     */
+    public void loadInBackground() {
+        if (loaded || loading != null)
+            return;
+
+        if (taskStorage.exists()) {
+            loading = taskStorage.readInBackground(new Runnable() {
+                public void run() {
+                    ensureLoaded();
+                }
+            });
+        } else {
+            ensureLoaded();
+        }
+    }
+
+    /**
+     * Loads tasks if they are not loaded yet. If files are being read in background,
+     * waits until they are read. If tasks can't be read, user is told that changes won't be
+     * saved and task files are not overwritten. If thread is interrupted while waiting, tasks stay not
+     * loaded and the next call waits again.
+     */
+    public void ensureLoaded() {
+        if (loaded)
+            return;
+
+        loaded = true;
+        // stays set if loading throws, so tasks which can't be read are not overwritten
+        loadFailed = true;
+        long start = System.nanoTime();
+        try {
+            if (loading != null) {
+                taskStorage.apply(loading.get());
+            } else if (taskStorage.exists()) {
+                taskStorage.load();
+            } else {
+                // old tasks are forgotten only when they are written to task files
+                if (getOldElement() != null)
+                    SerializeSupport.readExternal(taskModel, null, getOldElement());
+
+                taskStorage.startTracking();
+            }
+            loadFailed = false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            loaded = false;
+            loadFailed = false;
+        } catch (CancellationException e) {
+            // reading is cancelled only when application is closed, there is nothing to report
+            taskStorage.stopTracking();
+        } catch (ExecutionException e) {
+            reportLoadFailure(e.getCause());
+        } catch (IOException e) {
+            reportLoadFailure(e);
+        } catch (InvalidDataException e) {
+            reportLoadFailure(e);
+        } finally {
+            if (loaded) {
+                // old tasks left next to task files are already migrated
+                if (taskStorage.exists()) {
+                    xmlElement = null;
+                    legacyElement = null;
+                }
+                loading = null;
+            }
+            loadTime = System.nanoTime() - start;
+        }
+    }
+
+    private void reportLoadFailure(final Throwable e) {
+        // storage doesn't track the model, so tasks which can't be read are not overwritten
+        taskStorage.stopTracking();
+        LOG.warn("Tasks can't be loaded, task files are left as they are", e);
+
+        // changes made from now on are lost, so user has to know it before making them
+        SwingUtilities.invokeLater(new Runnable() {
+            public void run() {
+                Messages.showErrorDialog("Tasks can't be loaded: " + e.getMessage() + "\n" +
+                        "Changes of tasks won't be saved until IDEA is restarted.", "Tasks");
+            }
+        });
+    }
+
+    /**
+     * Checks whether tasks have been loaded.
+     *
+     * @return <code>true</code> if tasks are loaded or loading failed
+     */
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * Returns time spent loading tasks on EDT, background reading isn't included.
+     *
+     * @return time in nanoseconds
+     */
+    public long getLoadTime() {
+        return loadTime;
     }
 
     private void init() {
-        TasksApplicationComponent tasksApplication =
-                ApplicationManager.getApplication().getComponent(TasksApplicationComponent.class);
+        init(ApplicationManager.getApplication().getComponent(TasksApplicationComponent.class),
+                new File(PathManager.getOptionsPath()));
+    }
 
+    private void init(TasksApplicationComponent tasksApplication, File directory) {
         taskModel = tasksApplication.getTaskModel();
         taskSettings = tasksApplication.getSettings();
+        legacyElement = tasksApplication.takeLegacyElement();
+
+        // own settings are read after init, so they replace settings of older releases
+        if (legacyElement != null) {
+            try {
+                taskSettings.readExternal(legacyElement);
+            } catch (InvalidDataException e) {
+                LOG.warn("Settings of older release can't be read", e);
+            }
+        }
+
+        taskStorage = new TaskFileStorage(taskModel, taskSettings, directory);
     }
 }
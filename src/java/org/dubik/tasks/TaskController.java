@@ -254,8 +254,8 @@ public class TaskController implements TreeSelectionListener {
      */
     public Set<ITask> getAllTasks() {
         Set<ITask> allTasks = new HashSet<ITask>();
-        for (int i = 0; i < taskModel.size(); i++)
-            addTasksRecursively(taskModel.getTask(i), allTasks);
+        for (ITask task : taskModel.tasks())
+            allTasks.add(task);
 
         return allTasks;
     }
@@ -268,17 +268,13 @@ public class TaskController implements TreeSelectionListener {
      */
     public Set<ITask> getSubTasks(ITask task) {
         Set<ITask> subTasks = new HashSet<ITask>();
-        addTasksRecursively(task, subTasks);
+        subTasks.add(task);
+        for (ITask subTask : task.descendants())
+            subTasks.add(subTask);
 
         return subTasks;
     }
 
-    private void addTasksRecursively(ITask task, Set<ITask> allTasks) {
-        allTasks.add(task);
-        for (int i = 0; i < task.size(); i++)
-            addTasksRecursively(task.get(i), allTasks);
-    }
-
     /**
      * Returns array of possible parents of specified task.
      *
@@ -296,30 +292,37 @@ public class TaskController implements TreeSelectionListener {
     }
 
     public ITask findParentFor(ITask task) {
-        ITask parent = null;
-        for (int i = 0; i < taskModel.size(); i++) {
-            parent = findParentForRecursively(taskModel.getTask(i), task);
-            if (parent != null)
-                return parent;
-        }
+        ITask modelTask = taskModel.findTask(task.getId());
+        if (modelTask == null)
+            return null;
 
-        return parent;
+        return modelTask.getParent();
     }
 
-    private ITask findParentForRecursively(ITask task, ITask childTask) {
-        for (int i = 0; i < task.size(); i++) {
-            ITask t = task.get(i);
-            if (t == childTask) {
-                return task;
-            } else {
-                ITask t1 = findParentForRecursively(task, childTask);
-                if (t1 != null)
-                    return t1;
-            }
+    /**
+     * Finds task by its identifier.
+     *
+     * @param id task identifier
+     * @return task or <code>null</code> if there is no task with such identifier
+     */
+    public ITask findTask(long id) {
+        return taskModel.findTask(id);
+    }
 
-        }
+    /**
+     * Starts batch of changes, tree is updated only once the batch is finished.
+     *
+     * @see #endBatch()
+     */
+    public void beginBatch() {
+        taskModel.beginBatch();
+    }
 
-        return null;
+    /**
+     * Finishes batch of changes.
+     */
+    public void endBatch() {
+        taskModel.endBatch();
     }
 
     public boolean canMoveUp(ITask task) {
@@ -354,6 +357,10 @@ public class TaskController implements TreeSelectionListener {
 
     private static ITask DUMMY_ROOT_TASK = new ITask() {
 
+        public long getId() {
+            return 0;
+        }
+
         public String getTitle() {
             return "Root";
         }
@@ -400,6 +407,10 @@ public class TaskController implements TreeSelectionListener {
             return null;
         }
 
+        public Iterable<ITask> descendants() {
+            return TaskIterator.descendantsOf(this);
+        }
+
         public int indexOf(ITask subTask) {
             return 0;
         }
@@ -415,6 +426,19 @@ public class TaskController implements TreeSelectionListener {
             return 0;
         }
 
+        @NotNull
+        public TaskPriority getHighestPriority(boolean onlyFirstLevel) {
+            return TaskPriority.Normal;
+        }
+
+        public int getCompletedSubTasksCount() {
+            return 0;
+        }
+
+        public long getModificationStamp() {
+            return 0;
+        }
+
         public long getActualTime() {
             return 0;
         }
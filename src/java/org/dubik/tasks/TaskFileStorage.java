@@ -0,0 +1,750 @@
+/*
+ * Copyright 2006 Sergiy Dubovik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dubik.tasks;
+
+import com.intellij.openapi.diagnostic.Logger;
+import org.dubik.tasks.model.*;
+import org.dubik.tasks.utils.TaskBinaryFormat;
+import org.dubik.tasks.utils.TaskDeltaFormat;
+import org.dubik.tasks.utils.TaskRecord;
+import org.dubik.tasks.utils.TaskRecordTree;
+import org.jetbrains.annotations.NonNls;
+
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Keeps tasks in two files: full snapshot and append-only delta with changes made since
+ * the snapshot was written. Changes are tracked with model events, so a save writes only
+ * tasks which were added, changed, moved or deleted since the previous save.
+ * When delta grows too big it's compacted: full snapshot is written and delta is cleared.
+ * <p/>
+ * Delta works as a journal as well: changes are appended and synced to disk shortly after
+ * they are made, changes made within journal latency are written together. So if IDEA crashes,
+ * only the last moments are lost. Journal is replayed on the next start by {@link #load()}.
+ * <p/>
+ * Files are written by background thread, EDT only takes immutable snapshot of the model
+ * or records of changed tasks. Nothing is written while the model isn't tracked, e.g. before
+ * tasks are loaded, so stored tasks are never replaced with an empty model.
+ *
+ * @author Sergiy Dubovik
+ */
+public class TaskFileStorage implements ITaskModelChangeListener {
+    private static final Logger LOG = Logger.getInstance("#org.dubik.tasks.TaskFileStorage");
+
+    @NonNls
+    private static final String SNAPSHOT_FILE_NAME = "tasks.dat";
+    @NonNls
+    private static final String DELTA_FILE_NAME = "tasks.delta";
+    @NonNls
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    // delta is compacted when it's bigger than this part of the snapshot
+    private static final int COMPACTION_RATIO = 2;
+    private static final long MIN_COMPACTION_LENGTH = 64 * 1024;
+
+    // task has to be written even if its modification stamp is the same, e.g. it was moved
+    private static final long FORCED = -1;
+
+    private static final int DEFAULT_JOURNAL_LATENCY = 200;
+
+    private ITaskModel taskModel;
+    private TaskSettings taskSettings;
+    private File snapshotFile;
+    private File deltaFile;
+
+    // task -> its modification stamp when it was saved last time
+    private Map<ITask, Long> dirtyTasks = new LinkedHashMap<ITask, Long>();
+    private Set<Long> deletedTasks = new LinkedHashSet<Long>();
+
+    private boolean fullSaveNeeded = true;
+    private boolean tracking;
+    private long snapshotLength;
+    private long deltaLength;
+
+    private int journalLatency = Integer.getInteger("org.dubik.tasks.journalLatency", DEFAULT_JOURNAL_LATENCY);
+    private Timer journalTimer;
+    private int journalCommits;
+
+    private ExecutorService saveExecutor;
+    private SaveJob runningJob;
+    private boolean saveRequested;
+    private boolean saveFailed;
+    private int savesDone;
+    private int mergedSaves;
+    private long lastCaptureTime;
+    private long lastWriteTime;
+
+    /**
+     * Creates storage.
+     *
+     * @param taskModel    task model
+     * @param taskSettings plugin settings, they are written to snapshot
+     * @param directory    directory where task files are kept
+     */
+    public TaskFileStorage(ITaskModel taskModel, TaskSettings taskSettings, File directory) {
+        this.taskModel = taskModel;
+        this.taskSettings = taskSettings;
+        snapshotFile = new File(directory, SNAPSHOT_FILE_NAME);
+        deltaFile = new File(directory, DELTA_FILE_NAME);
+
+        journalTimer = new Timer(0, new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                commitJournal();
+            }
+        });
+        journalTimer.setRepeats(false);
+    }
+
+    /**
+     * Sets time during which changes are collected before they are written to the journal.
+     * Can be also set with <code>org.dubik.tasks.journalLatency</code> system property.
+     *
+     * @param journalLatency latency in milliseconds, 0 means every change is written at once,
+     *                       negative value disables journal, so changes are written only on save
+     */
+    public void setJournalLatency(int journalLatency) {
+        this.journalLatency = journalLatency;
+    }
+
+    public int getJournalLatency() {
+        return journalLatency;
+    }
+
+    /**
+     * Returns amount of journal writes, every write syncs all changes collected during latency.
+     *
+     * @return amount of journal writes
+     */
+    public int getJournalCommitCount() {
+        return journalCommits;
+    }
+
+    /**
+     * Checks whether tasks have been already saved by the storage.
+     *
+     * @return <code>true</code> if snapshot file exists
+     */
+    public boolean exists() {
+        return snapshotFile.isFile();
+    }
+
+    /**
+     * Reads snapshot, applies stored changes, adds tasks to the model in one batch
+     * and starts tracking the model.
+     * Settings are kept by <code>NamedTaskStorage</code>, so they are not read.
+     *
+     * @throws IOException if snapshot can't be read or is broken
+     */
+    public void load() throws IOException {
+        apply(read());
+    }
+
+    /**
+     * Reads files in background thread. Saves use the same thread, so they can't overlap with reading.
+     *
+     * @param whenRead called on EDT when reading is finished, successfully or not
+     * @return future result of reading, it should be passed to {@link #apply(StoredTasks)}
+     */
+    public Future<StoredTasks> readInBackground(final Runnable whenRead) {
+        return getSaveExecutor().submit(new Callable<StoredTasks>() {
+            public StoredTasks call() throws Exception {
+                try {
+                    return read();
+                } finally {
+                    SwingUtilities.invokeLater(whenRead);
+                }
+            }
+        });
+    }
+
+    /**
+     * Reads snapshot and applies stored changes to it. Doesn't touch the model, so it can be
+     * called from any thread.
+     *
+     * @return read tasks
+     * @throws IOException if snapshot can't be read or is broken
+     */
+    public StoredTasks read() throws IOException {
+        byte[] snapshot = readFile(snapshotFile);
+        CRC32 checksum = new CRC32();
+        checksum.update(snapshot);
+
+        TaskRecordTree tree = TaskBinaryFormat.readRecords(null, new ByteArrayInputStream(snapshot));
+
+        long validDeltaLength = 0;
+        if (deltaFile.isFile()) {
+            InputStream stream = new FileInputStream(deltaFile);
+            try {
+                validDeltaLength = TaskDeltaFormat.apply(stream, snapshot.length, checksum.getValue(), tree);
+            } finally {
+                stream.close();
+            }
+        }
+
+        // broken tail is cut, otherwise segments written after it would be lost
+        if (validDeltaLength > 0 && validDeltaLength < deltaFile.length())
+            truncate(deltaFile, validDeltaLength);
+
+        return new StoredTasks(tree, snapshot.length, validDeltaLength);
+    }
+
+    /**
+     * Adds read tasks to the model in one batch and starts tracking the model.
+     *
+     * @param tasks read tasks
+     */
+    public void apply(StoredTasks tasks) {
+        stopTracking();
+        tasks.tree.addTo(taskModel);
+        startTracking();
+
+        snapshotLength = tasks.snapshotLength;
+        deltaLength = tasks.deltaLength;
+        fullSaveNeeded = tasks.deltaLength == 0;
+    }
+
+    /**
+     * Starts writing changes made since the previous save, or full snapshot if the delta became
+     * too big or it's the first save. Consistent view of changes is taken right away, while files
+     * are written by background thread. If previous save is still running, changes are written
+     * by the next save, which starts when running one is done.
+     */
+    public void save() {
+        journalTimer.stop();
+        if (!tracking)
+            return;
+
+        if (runningJob != null) {
+            if (saveRequested)
+                mergedSaves++;
+            saveRequested = true;
+            return;
+        }
+
+        SaveJob job = createJob();
+        if (job != null) {
+            runningJob = job;
+            job.future = getSaveExecutor().submit(job);
+        }
+    }
+
+    /**
+     * Waits for running save and writes remaining changes in the calling thread.
+     * Must be called before IDEA exits.
+     *
+     * @throws IOException if files can't be written
+     */
+    public void flush() throws IOException {
+        journalTimer.stop();
+
+        while (runningJob != null) {
+            SaveJob job = runningJob;
+            try {
+                job.future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                // job keeps its own errors
+            }
+            finish(job);
+        }
+
+        saveRequested = false;
+        if (!tracking)
+            return;
+
+        SaveJob job = createJob();
+        if (job != null) {
+            runningJob = job;
+            job.run();
+            finish(job);
+            if (job.error != null)
+                throw job.error;
+        }
+    }
+
+    /**
+     * Writes remaining changes and stops background thread.
+     */
+    public void dispose() {
+        try {
+            flush();
+        } catch (IOException e) {
+            LOG.error("Tasks can't be saved, changes made since the last save are lost", e);
+        }
+        stopTracking();
+
+        if (saveExecutor != null)
+            saveExecutor.shutdown();
+    }
+
+    /**
+     * Writes changes collected by the journal. Called by timer after journal latency.
+     */
+    public void commitJournal() {
+        journalCommits++;
+        save();
+    }
+
+    private void scheduleJournalCommit() {
+        if (journalLatency == 0) {
+            commitJournal();
+        } else if (journalLatency > 0 && !journalTimer.isRunning()) {
+            journalTimer.setInitialDelay(journalLatency);
+            journalTimer.start();
+        }
+    }
+
+    /**
+     * Takes what has to be written and marks it as saved. If the job fails,
+     * full snapshot is written next time.
+     *
+     * @return job or <code>null</code> if there is nothing to write
+     */
+    private SaveJob createJob() {
+        long start = System.nanoTime();
+
+        SaveJob job;
+        if (fullSaveNeeded || deltaLength > Math.max(snapshotLength / COMPACTION_RATIO, MIN_COMPACTION_LENGTH))
+            job = new SaveJob(taskModel.snapshot(), copyOf(taskSettings));
+        else if (!dirtyTasks.isEmpty() || !deletedTasks.isEmpty())
+            job = new SaveJob(new ArrayList<Long>(deletedTasks), createRecords());
+        else
+            return null;
+
+        dirtyTasks.clear();
+        deletedTasks.clear();
+        lastCaptureTime = System.nanoTime() - start;
+
+        return job;
+    }
+
+    private void finish(SaveJob job) {
+        if (job != runningJob)
+            return;
+
+        runningJob = null;
+        savesDone++;
+        lastWriteTime = job.writeTime;
+
+        if (job.error != null) {
+            // jobs run by flush throw their errors to its caller, journal retries soon,
+            // so only the first failure of background saves in a row is reported as error
+            if (job.future != null && saveFailed)
+                LOG.warn("Tasks can't be saved again", job.error);
+            else if (job.future != null)
+                LOG.error("Tasks can't be saved, full snapshot is written on the next save", job.error);
+            saveFailed = true;
+            fullSaveNeeded = true;
+        } else if (job.snapshot != null) {
+            saveFailed = false;
+            snapshotLength = job.snapshotLength;
+            deltaLength = job.deltaLength;
+            fullSaveNeeded = false;
+        } else {
+            saveFailed = false;
+            deltaLength += job.deltaLength;
+        }
+
+        if (saveRequested) {
+            saveRequested = false;
+            save();
+        }
+    }
+
+    private ExecutorService getSaveExecutor() {
+        if (saveExecutor == null) {
+            saveExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "Tasks saver");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+
+        return saveExecutor;
+    }
+
+    static private TaskSettings copyOf(TaskSettings settings) {
+        TaskSettings copy = new TaskSettings();
+        copy.setEnableActualTime(settings.isEnableActualTime());
+        copy.setAskActualWhenCompleteTask(settings.isAskActualWhenCompleteTask());
+        copy.setEnableTasksScope(settings.isEnableTasksScope());
+        copy.setPropagatePriority(settings.isPropagatePriority());
+        copy.setPriorityPropagatedOneLevelOnly(settings.isPriorityPropagatedOneLevelOnly());
+
+        return copy;
+    }
+
+    /**
+     * Checks whether save is running in background.
+     *
+     * @return <code>true</code> if files are being written
+     */
+    public boolean isSaving() {
+        return runningJob != null;
+    }
+
+    /**
+     * Returns amount of finished saves, both successful and failed ones.
+     *
+     * @return amount of saves
+     */
+    public int getSaveCount() {
+        return savesDone;
+    }
+
+    /**
+     * Returns amount of saves which were merged into following ones because
+     * previous save was still running.
+     *
+     * @return amount of merged saves
+     */
+    public int getMergedSaveCount() {
+        return mergedSaves;
+    }
+
+    /**
+     * Returns time the last save spent in the calling thread, usually EDT, to take
+     * consistent view of changes.
+     *
+     * @return time in nanoseconds
+     */
+    public long getLastCaptureTime() {
+        return lastCaptureTime;
+    }
+
+    /**
+     * Returns time the last finished save spent writing files.
+     *
+     * @return time in nanoseconds
+     */
+    public long getLastWriteTime() {
+        return lastWriteTime;
+    }
+
+    /**
+     * Creates records of dirty tasks which are still in the model. Parents go before their
+     * sub tasks and sub tasks of the same parent are sorted by index, so that records can be
+     * applied one by one.
+     *
+     * @return records
+     */
+    private List<TaskRecord> createRecords() {
+        List<DirtyTask> tasks = new ArrayList<DirtyTask>(dirtyTasks.size());
+        Map<ITask, DirtyTask> topLevelTasks = new IdentityHashMap<ITask, DirtyTask>();
+        Map<ITask, Integer> depths = new IdentityHashMap<ITask, Integer>();
+        for (Map.Entry<ITask, Long> entry : dirtyTasks.entrySet()) {
+            ITask task = entry.getKey();
+            long stamp = entry.getValue();
+            if (taskModel.findTask(task.getId()) != task)
+                continue;
+            if (stamp != FORCED && stamp == task.getModificationStamp())
+                continue;
+
+            DirtyTask dirtyTask = new DirtyTask(task, depthOf(task, depths));
+            if (task.getParent() != null)
+                dirtyTask.index = task.getParent().indexOf(task);
+            else
+                topLevelTasks.put(task, dirtyTask);
+
+            tasks.add(dirtyTask);
+        }
+
+        // model doesn't know indexes of top level tasks, one pass finds all of them
+        int found = 0;
+        for (int i = 0; i < taskModel.size() && found < topLevelTasks.size(); i++) {
+            DirtyTask dirtyTask = topLevelTasks.get(taskModel.getTask(i));
+            if (dirtyTask != null) {
+                dirtyTask.index = i;
+                found++;
+            }
+        }
+
+        Collections.sort(tasks);
+
+        List<TaskRecord> records = new ArrayList<TaskRecord>(tasks.size());
+        for (DirtyTask dirtyTask : tasks)
+            records.add(TaskRecord.create(dirtyTask.task, dirtyTask.index));
+
+        return records;
+    }
+
+    /**
+     * Returns depth of a task, depths of its parents are remembered, so dirty sub tree
+     * of a deep chain doesn't walk the chain for every task.
+     */
+    static private int depthOf(ITask task, Map<ITask, Integer> depths) {
+        List<ITask> parents = new ArrayList<ITask>();
+        int depth = -1;
+        for (ITask parent = task; parent != null; parent = parent.getParent()) {
+            Integer parentDepth = depths.get(parent);
+            if (parentDepth != null) {
+                depth = parentDepth;
+                break;
+            }
+            parents.add(parent);
+        }
+
+        for (int i = parents.size() - 1; i >= 0; i--)
+            depths.put(parents.get(i), ++depth);
+
+        return depth;
+    }
+
+    /**
+     * Returns amount of tasks and deletions which will be written by the next delta save.
+     *
+     * @return amount of pending changes
+     */
+    public int getPendingChangeCount() {
+        return dirtyTasks.size() + deletedTasks.size();
+    }
+
+    /**
+     * Returns current length of the delta file.
+     *
+     * @return length in bytes
+     */
+    public long getDeltaLength() {
+        return deltaLength;
+    }
+
+    /**
+     * Starts listening to the model. Changes are saved only while the model is tracked.
+     */
+    public void startTracking() {
+        if (!tracking) {
+            taskModel.addChangeListener(this);
+            tracking = true;
+        }
+    }
+
+    /**
+     * Stops listening to the model.
+     */
+    public void stopTracking() {
+        if (tracking) {
+            taskModel.removeChangeListener(this);
+            journalTimer.stop();
+            tracking = false;
+        }
+    }
+
+    public void handleAddTaskEvent(TaskChangeEvent event) {
+        markSubTasksDirty(event.getTask());
+        scheduleJournalCommit();
+    }
+
+    public void handlePreDeleteTaskEvent(TaskChangeEvent event) {
+    }
+
+    public void handleDeleteTaskEvent(TaskChangeEvent event) {
+        deletedTasks.add(event.getTask().getId());
+        scheduleJournalCommit();
+    }
+
+    public void handlePreChangeTaskEvent(TaskChangeEvent event) {
+        ITask task = event.getTask();
+        if (!dirtyTasks.containsKey(task))
+            dirtyTasks.put(task, task.getModificationStamp());
+    }
+
+    public void handleChangeTaskEvent(TaskChangeEvent event) {
+        ITask task = event.getTask();
+        if (event.isMoved() || !dirtyTasks.containsKey(task))
+            dirtyTasks.put(task, FORCED);
+        scheduleJournalCommit();
+    }
+
+    public void handleBatchEvent(TaskBatchEvent event) {
+        Set<ITask> addedTasks = event.getAddedTasks();
+        for (ITask task : addedTasks) {
+            // sub tasks of an added task are marked with it
+            if (!addedTasks.contains(task.getParent()))
+                markSubTasksDirty(task);
+        }
+        for (ITask task : event.getChangedTasks())
+            dirtyTasks.put(task, FORCED);
+        for (ITask task : event.getDeletedTasks())
+            deletedTasks.add(task.getId());
+        scheduleJournalCommit();
+    }
+
+    private void markSubTasksDirty(ITask task) {
+        for (TaskIterator it = TaskIterator.preOrder(task); it.hasNext();)
+            dirtyTasks.put(it.next(), FORCED);
+    }
+
+    static private byte[] readFile(File file) throws IOException {
+        InputStream stream = new FileInputStream(file);
+        try {
+            byte[] bytes = new byte[(int) file.length()];
+            new DataInputStream(stream).readFully(bytes);
+            return bytes;
+        } finally {
+            stream.close();
+        }
+    }
+
+    static private void truncate(File file, long length) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            randomAccessFile.setLength(length);
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    static private void replace(File source, File target) throws IOException {
+        // rename doesn't overwrite existing file on Windows
+        if (!source.renameTo(target) && !(target.delete() && source.renameTo(target)))
+            throw new IOException("can't rename " + source + " to " + target);
+    }
+
+    /**
+     * Tasks read from files, but not added to the model yet.
+     */
+    public static class StoredTasks {
+        private TaskRecordTree tree;
+        private long snapshotLength;
+        private long deltaLength;
+
+        private StoredTasks(TaskRecordTree tree, long snapshotLength, long deltaLength) {
+            this.tree = tree;
+            this.snapshotLength = snapshotLength;
+            this.deltaLength = deltaLength;
+        }
+
+        public int size() {
+            return tree.size();
+        }
+    }
+
+    /**
+     * Writes files in background thread. It's given everything it writes, so it doesn't touch
+     * the model or settings.
+     */
+    private class SaveJob implements Runnable {
+        private TaskModelSnapshot snapshot;
+        private TaskSettings settings;
+        private List<Long> deleted;
+        private List<TaskRecord> records;
+
+        private Future<?> future;
+        private long snapshotLength;
+        private long deltaLength;
+        private long writeTime;
+        private IOException error;
+
+        public SaveJob(TaskModelSnapshot snapshot, TaskSettings settings) {
+            this.snapshot = snapshot;
+            this.settings = settings;
+        }
+
+        public SaveJob(List<Long> deleted, List<TaskRecord> records) {
+            this.deleted = deleted;
+            this.records = records;
+        }
+
+        public void run() {
+            long start = System.nanoTime();
+            try {
+                if (snapshot != null)
+                    writeSnapshot();
+                else
+                    writeDelta();
+            } catch (IOException e) {
+                error = e;
+            } finally {
+                writeTime = System.nanoTime() - start;
+                SwingUtilities.invokeLater(new Runnable() {
+                    public void run() {
+                        finish(SaveJob.this);
+                    }
+                });
+            }
+        }
+
+        private void writeSnapshot() throws IOException {
+            File tempFile = new File(snapshotFile.getPath() + TEMP_SUFFIX);
+            FileOutputStream fileStream = new FileOutputStream(tempFile);
+            CheckedOutputStream stream = new CheckedOutputStream(fileStream, new CRC32());
+            try {
+                TaskBinaryFormat.write(snapshot, settings, stream);
+                fileStream.getFD().sync();
+            } finally {
+                stream.close();
+            }
+
+            long length = tempFile.length();
+            long checksum = stream.getChecksum().getValue();
+            replace(tempFile, snapshotFile);
+
+            // old delta doesn't match new snapshot anymore, so it's ignored even if this write fails
+            FileOutputStream deltaStream = new FileOutputStream(deltaFile);
+            try {
+                TaskDeltaFormat.writeHeader(deltaStream, length, checksum);
+                deltaStream.getFD().sync();
+            } finally {
+                deltaStream.close();
+            }
+
+            snapshotLength = length;
+            deltaLength = deltaFile.length();
+        }
+
+        private void writeDelta() throws IOException {
+            // if append fails, segment may be cut and everything after it would be ignored,
+            // so failed job makes the next save write full snapshot
+            FileOutputStream stream = new FileOutputStream(deltaFile, true);
+            try {
+                deltaLength = TaskDeltaFormat.writeSegment(stream, deleted, records);
+                stream.getFD().sync();
+            } finally {
+                stream.close();
+            }
+        }
+    }
+
+    static private class DirtyTask implements Comparable<DirtyTask> {
+        private ITask task;
+        private int depth;
+        private int index;
+
+        public DirtyTask(ITask task, int depth) {
+            this.task = task;
+            this.depth = depth;
+        }
+
+        public int compareTo(DirtyTask other) {
+            if (depth != other.depth)
+                return depth < other.depth ? -1 : 1;
+
+            return index < other.index ? -1 : (index == other.index ? 0 : 1);
+        }
+    }
+}
@@ -33,12 +33,12 @@ public class TaskSettings extends PropertyChangeSupport implements JDOMExternali
     private boolean propagatePriority;
     private boolean oneLevelOnly;
 
-    private static final String TASKS_SETTINGS_OPTIONS = "options";
-    private static final String TASKS_SETTINGS_ENABLE_ACTUAL_TIME = "enableActualTime";
-    private static final String TASKS_SETTINGS_ASK_ACTUAL = "askActualWhenCompleteTask";
-    private static final String TASKS_SETTINGS_ENABLE_TASKS_SCOPE = "enableTasksScope";
-    private static final String TASKS_SETTINGS_PROPAGATE_PRIORITY = "propagatePriority";
-    private static final String TASKS_SETTINGS_ONE_LEVEL_ONLY = "oneLevelOnly";
+    public static final String TASKS_SETTINGS_OPTIONS = "options";
+    public static final String TASKS_SETTINGS_ENABLE_ACTUAL_TIME = "enableActualTime";
+    public static final String TASKS_SETTINGS_ASK_ACTUAL = "askActualWhenCompleteTask";
+    public static final String TASKS_SETTINGS_ENABLE_TASKS_SCOPE = "enableTasksScope";
+    public static final String TASKS_SETTINGS_PROPAGATE_PRIORITY = "propagatePriority";
+    public static final String TASKS_SETTINGS_ONE_LEVEL_ONLY = "oneLevelOnly";
 
     public TaskSettings() {
         super(TaskSettings.class);
@@ -49,6 +49,7 @@ public class TasksApplicationComponent implements ApplicationComponent, JDOMExte
     private ITaskModel taskModel;
     private TaskSettings taskSettings;
     private TasksSettingsForm tasksSettingsForm;
+    private Element legacyElement;
 
     /**
      * Creates TasksApplicationComponent.
@@ -116,17 +117,29 @@ public class TasksApplicationComponent implements ApplicationComponent, JDOMExte
     }
 
     /**
-     * Populates model and plugin settings from specified element.
-     * <p/>
-     * Now <code>NamedTaskStorage</code> is responsible for reading but for compatibility with
-     * old release.
+     * Keeps plugin data written by old releases, so <code>NamedTaskStorage</code> can migrate it.
+     * Tasks are not read here, <code>NamedTaskStorage</code> is the only one who loads them.
      *
      * @param element root of the plugin data
      * @throws InvalidDataException thrown if element is invalid
      * @see org.dubik.tasks.NamedTaskStorage
      */
     public void readExternal(Element element) throws InvalidDataException {
-        SerializeSupport.readExternal(taskModel, taskSettings, element);
+        if (SerializeSupport.hasTasks(element))
+            legacyElement = element;
+    }
+
+    /**
+     * Returns plugin data with tasks written by old releases and forgets it,
+     * so it's migrated only once.
+     *
+     * @return root of the plugin data or <code>null</code> if there are no old tasks
+     */
+    @Nullable
+    Element takeLegacyElement() {
+        Element element = legacyElement;
+        legacyElement = null;
+        return element;
     }
 
     /**
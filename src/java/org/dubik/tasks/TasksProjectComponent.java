@@ -37,6 +37,8 @@ import org.jetbrains.annotations.NotNull;
 
 import javax.swing.*;
 import java.awt.*;
+import java.awt.event.HierarchyEvent;
+import java.awt.event.HierarchyListener;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 
@@ -53,8 +55,10 @@ public class TasksProjectComponent implements ProjectComponent {
     private JComponent tasksContainer;
 
     private TaskSettings settings;
+    private ITaskModel taskModel;
     private TaskController taskController;
     private TreeController treeController;
+    private TaskTreeModel treeModel;
     private PropertyChangeListener settingsChangeListener;
 
     public TasksProjectComponent(Project project, IntentionManager intentionManager) {
@@ -70,14 +74,32 @@ public class TasksProjectComponent implements ProjectComponent {
 
         settings = appComp.getSettings();
 
-        ITaskModel taskModel = appComp.getTaskModel();
+        taskModel = appComp.getTaskModel();
         taskController = new TaskController(taskModel);
 
         if (tasksContainer == null) {
             tasksContainer = new JPanel(new BorderLayout(1, 1));
             tasksContainer.setBorder(null);
 
-            TaskTreeModel treeModel = TasksUIManager.createTaskTreeModel(taskModel);
+            // tree is created and tasks are loaded when the tool window is shown for the first time
+            tasksContainer.addHierarchyListener(new HierarchyListener() {
+                public void hierarchyChanged(HierarchyEvent e) {
+                    if ((e.getChangeFlags() & HierarchyEvent.SHOWING_CHANGED) != 0 && tasksContainer.isShowing()) {
+                        tasksContainer.removeHierarchyListener(this);
+                        NamedTaskStorage.getInstance().loadInBackground();
+                        createTree();
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Creates task tree if it's not created yet.
+     */
+    private void createTree() {
+        if (treeController == null) {
+            treeModel = TasksUIManager.createTaskTreeModel(taskModel);
 
             JTree tasksTree = TasksUIManager.createTaskTree(
                     treeModel,
@@ -91,29 +113,27 @@ public class TasksProjectComponent implements ProjectComponent {
             treeModel.setRefresher(new TreeRefresher(tasksTree, treeController));
             settingsChangeListener = new TreeUpdater(treeController);
             settings.addPropertyChangeListener(settingsChangeListener);
+
+            tasksContainer.revalidate();
         }
+    }
 
-/*
-        if (expTasksContainer == null) {
-            expTasksContainer = new JPanel(new BorderLayout(1, 1));
-            expTasksContainer.setBorder(null);
-
-            DefaultMutableTreeNode root =
-                    new DefaultMutableTreeNode(new NewTask("New Task", TaskPriority.Important, 10000));
-            root.add(new DefaultMutableTreeNode(new NewTask("One more task", TaskPriority.Important, hashCode())));
-            root.add(new DefaultMutableTreeNode(new NewTask("One more task", TaskPriority.Normal, hashCode())));
-            root.add(new DefaultMutableTreeNode(new NewTask("One more task", TaskPriority.Important, hashCode())));
-
-            DefaultTreeModel m = new DefaultTreeModel(root, false);
-            
-            JTree tasksTree = TasksUIManager.createNewTaskTree(
-                    m, TasksUIManager.createTaskTreePopup("TasksPopupGroup")
-            );
+    /**
+     * Loads tasks and creates task tree, if it's not done yet.
+     */
+    private void ensureInitialized() {
+        NamedTaskStorage.getInstance().ensureLoaded();
+        createTree();
+    }
 
-            tasksTree.addTreeSelectionListener(taskController);
-            expTasksContainer.add(new JScrollPane(tasksTree), BorderLayout.CENTER);
-        }
-*/
+    /**
+     * Checks whether tasks are loaded and task tree is created, so controllers can be
+     * used without loading anything.
+     *
+     * @return <code>true</code> if component is initialized
+     */
+    public boolean isInitialized() {
+        return treeController != null && NamedTaskStorage.getInstance().isLoaded();
     }
 
     public void disposeComponent() {
@@ -166,13 +186,20 @@ public class TasksProjectComponent implements ProjectComponent {
     public void projectClosed() {
         ToolWindowManager toolWindowManager = ToolWindowManager.getInstance(project);
         toolWindowManager.unregisterToolWindow(TasksProjectComponent.TASKS_ID);
+
+        if (treeModel != null) {
+            treeModel.dispose();
+            treeModel = null;
+        }
     }
 
     public TaskController getTaskController() {
+        ensureInitialized();
         return taskController;
     }
 
     public TreeController getTreeController() {
+        ensureInitialized();
         return treeController;
     }
 
@@ -24,6 +24,14 @@ import org.jetbrains.annotations.Nullable;
  * @author Sergiy Dubovik
  */
 public interface ITask {
+    /**
+     * Returns task's identifier. It's unique within a task model and
+     * doesn't change between sessions.
+     *
+     * @return task's identifier, or <code>0</code> if task doesn't belong to a model
+     */
+    public long getId();
+
     /**
      * Returns task's title.
      *
@@ -91,6 +99,31 @@ public interface ITask {
      */
     public int getCompletionRatio();
 
+    /**
+     * Returns amount of completed direct sub tasks.
+     *
+     * @return amount of completed sub tasks
+     */
+    public int getCompletedSubTasksCount();
+
+    /**
+     * Returns the highest priority of the task and its sub tasks.
+     *
+     * @param onlyFirstLevel <code>true</code> if only direct sub tasks are taken into account,
+     *                       <code>false</code> if all sub tasks are
+     * @return the highest priority
+     */
+    @NotNull
+    public TaskPriority getHighestPriority(boolean onlyFirstLevel);
+
+    /**
+     * Returns modification counter of the task. It's increased every time the task
+     * or anything it shows about its sub tasks changes.
+     *
+     * @return modification counter
+     */
+    public long getModificationStamp();
+
     /**
      * Adds sub task.
      *
@@ -113,6 +146,15 @@ public interface ITask {
      */
     public ITask get(int index);
 
+    /**
+     * Returns sub tasks and their sub tasks, parents go first. Tasks must not be added
+     * or removed while they are walked.
+     *
+     * @return all sub tasks, without the task itself
+     * @see TaskIterator
+     */
+    public Iterable<ITask> descendants();
+
     public ITask getParent();
 
     public int indexOf(ITask subTask);
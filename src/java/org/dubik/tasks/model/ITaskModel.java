@@ -16,6 +16,7 @@
 package org.dubik.tasks.model;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 /**
  * Task model contains all tasks (however sub tasks can not be accessed by this interface)
@@ -30,6 +31,13 @@ public interface ITaskModel {
      */
     public int size();
 
+    /**
+     * Returns amount of all tasks and sub tasks.
+     *
+     * @return amount of tasks
+     */
+    public int getTaskCount();
+
     /**
      * Returns task at specified index.
      *
@@ -62,6 +70,26 @@ public interface ITaskModel {
      */
     public void removeChangeListener(ITaskModelChangeListener listener);
 
+    /**
+     * Returns amount of registered change listeners. Listeners which are not removed
+     * when their owner is disposed keep it in memory, so growing count means a leak.
+     *
+     * @return amount of change listeners
+     */
+    public int getChangeListenerCount();
+
+    /**
+     * Starts batch of changes. Until matching {@link #endBatch()} is called listeners are not
+     * notified, pre change and pre delete events are not fired at all. Batches can be nested.
+     */
+    public void beginBatch();
+
+    /**
+     * Finishes batch of changes. When outermost batch is finished, listeners get one
+     * {@link TaskBatchEvent} with all changes made during the batch.
+     */
+    public void endBatch();
+
     /**
      * Deletes specified task from model. It also can delete sub tasks.
      *
@@ -129,6 +157,32 @@ public interface ITaskModel {
     public ITask addTask(ITask parent, String title, TaskPriority priority, long estimatedTime,
                          long actualTime, long creationTime, boolean completed, boolean highlighted);
 
+    /**
+     * Creates and adds task with specified identifier.
+     *
+     * @param id            task identifier, if it's not positive or already used new one is generated
+     * @param parent        parent task
+     * @param title         task title
+     * @param priority      task priority
+     * @param estimatedTime estimated time to complete a task
+     * @param actualTime    elapsed time
+     * @param creationTime  time when note has been created
+     * @param completed     indicates if task is completed or not
+     * @param highlighted   indicates if task is highlighted or not
+     * @return created task
+     */
+    public ITask addTask(long id, ITask parent, String title, TaskPriority priority, long estimatedTime,
+                         long actualTime, long creationTime, boolean completed, boolean highlighted);
+
+    /**
+     * Finds task or sub task by its identifier.
+     *
+     * @param id task identifier
+     * @return task with specified identifier or <code>null</code> if there is no such task
+     */
+    @Nullable
+    public ITask findTask(long id);
+
     /**
      * Update specified task.
      *
@@ -188,4 +242,23 @@ public interface ITaskModel {
     void moveDown(@NotNull ITask task);
 
     void setTaskHighlightingType(ITask task, TaskHighlightingType hightlightingType);
+
+    /**
+     * Returns all tasks and sub tasks, parents go first. Tasks must not be added or removed
+     * while they are walked, use {@link #snapshot()} to walk them from another thread.
+     *
+     * @return all tasks of the model
+     */
+    Iterable<ITask> tasks();
+
+    /**
+     * Returns immutable snapshot of the model, which can be read from any thread without locking.
+     * Sub trees which haven't changed since previous snapshot are shared with it, so taking
+     * a snapshot costs only as much as copying the changed tasks and their parents.
+     * Must be called from the thread which changes the model.
+     *
+     * @return snapshot of the model
+     */
+    @NotNull
+    TaskModelSnapshot snapshot();
 }
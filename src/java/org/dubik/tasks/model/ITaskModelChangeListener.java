@@ -57,4 +57,13 @@ public interface ITaskModelChangeListener {
      * @param event event task change event
      */
     public void handleChangeTaskEvent(TaskChangeEvent event);
+
+    /**
+     * Fired once when outermost batch is finished, instead of separate
+     * events for every change made during the batch.
+     *
+     * @param event merged changes of the batch
+     * @see ITaskModel#beginBatch()
+     */
+    public void handleBatchEvent(TaskBatchEvent event);
 }
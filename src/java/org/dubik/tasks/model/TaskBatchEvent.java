@@ -0,0 +1,84 @@
+/*
+ * Copyright 2006 Sergiy Dubovik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dubik.tasks.model;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Represents all changes made to a task model during a batch.
+ * Every task appears in one set only: task which was added and then changed
+ * is reported as added, task which was added and then deleted is not reported at all.
+ *
+ * @author Sergiy Dubovik
+ */
+public class TaskBatchEvent {
+    private Set<ITask> addedTasks;
+    private Set<ITask> changedTasks;
+    private Set<ITask> deletedTasks;
+
+    /**
+     * Creates batch event.
+     *
+     * @param addedTasks   tasks added during the batch
+     * @param changedTasks tasks changed or moved during the batch
+     * @param deletedTasks tasks deleted during the batch
+     */
+    public TaskBatchEvent(Collection<ITask> addedTasks, Collection<ITask> changedTasks,
+                          Collection<ITask> deletedTasks) {
+        this.addedTasks = Collections.unmodifiableSet(new LinkedHashSet<ITask>(addedTasks));
+        this.changedTasks = Collections.unmodifiableSet(new LinkedHashSet<ITask>(changedTasks));
+        this.deletedTasks = Collections.unmodifiableSet(new LinkedHashSet<ITask>(deletedTasks));
+    }
+
+    /**
+     * Returns tasks added during the batch, in order they were added.
+     *
+     * @return added tasks
+     */
+    public Set<ITask> getAddedTasks() {
+        return addedTasks;
+    }
+
+    /**
+     * Returns tasks changed or moved during the batch.
+     *
+     * @return changed tasks
+     */
+    public Set<ITask> getChangedTasks() {
+        return changedTasks;
+    }
+
+    /**
+     * Returns tasks deleted during the batch.
+     *
+     * @return deleted tasks
+     */
+    public Set<ITask> getDeletedTasks() {
+        return deletedTasks;
+    }
+
+    /**
+     * Checks whether the batch changed anything.
+     *
+     * @return <code>true</code> if nothing was changed
+     */
+    public boolean isEmpty() {
+        return addedTasks.isEmpty() && changedTasks.isEmpty() && deletedTasks.isEmpty();
+    }
+}
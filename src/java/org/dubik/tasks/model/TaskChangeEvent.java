@@ -21,15 +21,49 @@ package org.dubik.tasks.model;
  * @author Sergiy Dubovik
  */
 public class TaskChangeEvent {
+    public static final int TITLE = 1;
+    public static final int PRIORITY = 1 << 1;
+    public static final int COMPLETION = 1 << 2;
+    public static final int TIMES = 1 << 3;
+    public static final int HIGHLIGHTING = 1 << 4;
+    public static final int ALL = TITLE | PRIORITY | COMPLETION | TIMES | HIGHLIGHTING;
+
     private ITask task;
+    private ITask oldParent;
+    private int oldIndex;
+    private ITask parent;
+    private int newIndex;
+    private int changedProperties;
 
     /**
-     * Creates change event for specified task.
+     * Creates change event for specified task. Task's position is unknown and
+     * all properties are considered changed.
      *
      * @param task task
      */
     public TaskChangeEvent(ITask task) {
+        this(task, task.getParent(), -1, task.getParent(), -1, ALL);
+    }
+
+    /**
+     * Creates change event for specified task. Indexes are positions in the parent's
+     * sub tasks or in the model if parent is <code>null</code>.
+     *
+     * @param task              task
+     * @param oldParent         parent before the change
+     * @param oldIndex          index before the change, -1 if task wasn't in the model
+     * @param parent            parent after the change
+     * @param newIndex          index after the change, -1 if task isn't in the model anymore
+     * @param changedProperties bitmask of changed properties, e.g. <code>TITLE | PRIORITY</code>
+     */
+    public TaskChangeEvent(ITask task, ITask oldParent, int oldIndex, ITask parent, int newIndex,
+                           int changedProperties) {
         this.task = task;
+        this.oldParent = oldParent;
+        this.oldIndex = oldIndex;
+        this.parent = parent;
+        this.newIndex = newIndex;
+        this.changedProperties = changedProperties;
     }
 
     /**
@@ -40,4 +74,68 @@ public class TaskChangeEvent {
     public ITask getTask() {
         return task;
     }
+
+    /**
+     * Returns task's parent before the change.
+     *
+     * @return old parent or <code>null</code> if task was top level task
+     */
+    public ITask getOldParent() {
+        return oldParent;
+    }
+
+    /**
+     * Returns task's index before the change.
+     *
+     * @return old index or -1 if it's unknown or task was just added
+     */
+    public int getOldIndex() {
+        return oldIndex;
+    }
+
+    /**
+     * Returns task's parent after the change.
+     *
+     * @return parent or <code>null</code> if task is top level task
+     */
+    public ITask getParent() {
+        return parent;
+    }
+
+    /**
+     * Returns task's index after the change.
+     *
+     * @return new index or -1 if it's unknown or task was deleted
+     */
+    public int getNewIndex() {
+        return newIndex;
+    }
+
+    /**
+     * Returns bitmask of changed properties.
+     *
+     * @return changed properties
+     */
+    public int getChangedProperties() {
+        return changedProperties;
+    }
+
+    /**
+     * Checks whether any of specified properties has been changed.
+     *
+     * @param properties bitmask of properties
+     * @return <code>true</code> if at least one of properties has been changed
+     */
+    public boolean isChanged(int properties) {
+        return (changedProperties & properties) != 0;
+    }
+
+    /**
+     * Checks whether task has been moved to another parent or position.
+     *
+     * @return <code>true</code> if task has been moved
+     */
+    public boolean isMoved() {
+        return oldParent != parent || oldIndex != newIndex;
+    }
 }
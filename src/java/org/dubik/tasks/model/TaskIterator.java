@@ -0,0 +1,259 @@
+/*
+ * Copyright 2006 Sergiy Dubovik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dubik.tasks.model;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Walks tasks and all their sub tasks without recursion, path from the top to the current task
+ * is kept in arrays, so depth of the tree is limited by memory only. Tasks must not be added
+ * or removed while they are walked.
+ * <p/>
+ * Pre-order returns a task before its sub tasks, post-order returns a task after its sub tasks.
+ *
+ * @author Sergiy Dubovik
+ */
+public class TaskIterator implements Iterator<ITask> {
+    private List<? extends ITask> roots;
+    private boolean postOrder;
+
+    // path to the current task, tasks[0] is null and stands for the roots
+    private ITask[] tasks = new ITask[16];
+    // index of the next sub task to visit for every task on the path
+    private int[] indexes = new int[16];
+    private int top;
+
+    private boolean found;
+    private ITask next;
+    private int nextDepth;
+    private int depth = -1;
+    // task whose sub tasks go next in pre-order
+    private ITask expanded;
+
+    private TaskIterator(List<? extends ITask> roots, boolean postOrder) {
+        this.roots = roots;
+        this.postOrder = postOrder;
+    }
+
+    /**
+     * Walks task and its sub tasks, parents go first.
+     *
+     * @param task task
+     * @return iterator
+     */
+    static public TaskIterator preOrder(ITask task) {
+        List<ITask> roots = new ArrayList<ITask>(1);
+        roots.add(task);
+
+        return new TaskIterator(roots, false);
+    }
+
+    /**
+     * Walks all tasks of the model, parents go first.
+     *
+     * @param model task model
+     * @return iterator
+     */
+    static public TaskIterator preOrder(ITaskModel model) {
+        List<ITask> roots = new ArrayList<ITask>(model.size());
+        for (int i = 0; i < model.size(); i++)
+            roots.add(model.getTask(i));
+
+        return new TaskIterator(roots, false);
+    }
+
+    /**
+     * Walks all tasks of the snapshot, parents go first.
+     *
+     * @param snapshot model snapshot
+     * @return iterator
+     */
+    static public TaskIterator preOrder(TaskModelSnapshot snapshot) {
+        List<ITask> roots = new ArrayList<ITask>(snapshot.size());
+        for (int i = 0; i < snapshot.size(); i++)
+            roots.add(snapshot.getTask(i));
+
+        return new TaskIterator(roots, false);
+    }
+
+    /**
+     * Walks tasks and their sub tasks, parents go first.
+     *
+     * @param tasks tasks
+     * @return iterator
+     */
+    static public TaskIterator preOrder(List<? extends ITask> tasks) {
+        return new TaskIterator(tasks, false);
+    }
+
+    /**
+     * Returns sub tasks of the task and their sub tasks, parents go first. Every call of
+     * <code>iterator()</code> starts a new walk.
+     *
+     * @param task task
+     * @return sub tasks of the task, without the task itself
+     */
+    static public Iterable<ITask> descendantsOf(final ITask task) {
+        return new Iterable<ITask>() {
+            public Iterator<ITask> iterator() {
+                List<ITask> subTasks = new ArrayList<ITask>(task.size());
+                for (int i = 0; i < task.size(); i++)
+                    subTasks.add(task.get(i));
+
+                return new TaskIterator(subTasks, false);
+            }
+        };
+    }
+
+    /**
+     * Returns all tasks of the model, parents go first. Every call of <code>iterator()</code>
+     * starts a new walk.
+     *
+     * @param model task model
+     * @return all tasks of the model
+     */
+    static public Iterable<ITask> tasksOf(final ITaskModel model) {
+        return new Iterable<ITask>() {
+            public Iterator<ITask> iterator() {
+                return preOrder(model);
+            }
+        };
+    }
+
+    /**
+     * Walks task and its sub tasks, sub tasks go first.
+     *
+     * @param task task
+     * @return iterator
+     */
+    static public TaskIterator postOrder(ITask task) {
+        List<ITask> roots = new ArrayList<ITask>(1);
+        roots.add(task);
+
+        return new TaskIterator(roots, true);
+    }
+
+    public boolean hasNext() {
+        if (!found) {
+            findNext();
+            found = true;
+        }
+
+        return next != null;
+    }
+
+    public ITask next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+
+        found = false;
+        depth = nextDepth;
+        if (!postOrder)
+            expanded = next;
+
+        return next;
+    }
+
+    /**
+     * Returns depth of the task returned by the last call of {@link #next()}.
+     *
+     * @return 0 for tasks the walk was started with, 1 for their sub tasks and so on
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Doesn't walk sub tasks of the task returned by the last call of {@link #next()}.
+     * Works in pre-order only and must be called before {@link #hasNext()}.
+     */
+    public void skipSubTasks() {
+        assert !postOrder && !found;
+
+        expanded = null;
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    private void findNext() {
+        if (expanded != null) {
+            if (expanded.size() != 0)
+                push(expanded);
+            expanded = null;
+        }
+
+        while (true) {
+            ITask subTask = nextSubTask();
+            if (subTask != null) {
+                if (postOrder && subTask.size() != 0) {
+                    // sub tasks go before the task
+                    push(subTask);
+                    continue;
+                }
+
+                next = subTask;
+                nextDepth = top;
+                return;
+            }
+
+            if (top == 0) {
+                next = null;
+                return;
+            }
+
+            // all sub tasks are walked
+            ITask task = tasks[top];
+            tasks[top] = null;
+            top--;
+            if (postOrder) {
+                next = task;
+                nextDepth = top;
+                return;
+            }
+        }
+    }
+
+    private ITask nextSubTask() {
+        int index = indexes[top];
+        int size = top == 0 ? roots.size() : tasks[top].size();
+        if (index >= size)
+            return null;
+
+        indexes[top] = index + 1;
+        return top == 0 ? roots.get(index) : tasks[top].get(index);
+    }
+
+    private void push(ITask task) {
+        top++;
+        if (top == tasks.length) {
+            ITask[] newTasks = new ITask[tasks.length * 2];
+            System.arraycopy(tasks, 0, newTasks, 0, tasks.length);
+            tasks = newTasks;
+
+            int[] newIndexes = new int[indexes.length * 2];
+            System.arraycopy(indexes, 0, newIndexes, 0, indexes.length);
+            indexes = newIndexes;
+        }
+
+        tasks[top] = task;
+        indexes[top] = 0;
+    }
+}
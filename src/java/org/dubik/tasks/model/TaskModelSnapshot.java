@@ -0,0 +1,119 @@
+/*
+ * Copyright 2006 Sergiy Dubovik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dubik.tasks.model;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Immutable state of a task model at some moment. Can be read from any thread,
+ * while the model itself keeps changing.
+ *
+ * @author Sergiy Dubovik
+ * @see ITaskModel#snapshot()
+ */
+public final class TaskModelSnapshot {
+    private final TaskSnapshot[] tasks;
+    private final int taskCount;
+
+    /**
+     * Creates model snapshot.
+     *
+     * @param tasks snapshots of top level tasks
+     */
+    public TaskModelSnapshot(List<TaskSnapshot> tasks) {
+        this(tasks.toArray(new TaskSnapshot[tasks.size()]));
+    }
+
+    private TaskModelSnapshot(TaskSnapshot[] tasks) {
+        this.tasks = tasks;
+
+        int count = 0;
+        for (TaskSnapshot task : tasks)
+            count += task.getTaskCount();
+        taskCount = count;
+    }
+
+    /**
+     * Returns amount of top level tasks.
+     *
+     * @return amount of top level tasks
+     */
+    public int size() {
+        return tasks.length;
+    }
+
+    /**
+     * Returns top level task.
+     *
+     * @param index index of the task
+     * @return task snapshot
+     */
+    public TaskSnapshot getTask(int index) {
+        return tasks[index];
+    }
+
+    /**
+     * Returns amount of all tasks and sub tasks.
+     *
+     * @return amount of tasks
+     */
+    public int getTaskCount() {
+        return taskCount;
+    }
+
+    /**
+     * Returns all tasks and sub tasks, parents go first.
+     *
+     * @return all tasks of the snapshot
+     */
+    public Iterable<ITask> tasks() {
+        return new Iterable<ITask>() {
+            public Iterator<ITask> iterator() {
+                return TaskIterator.preOrder(TaskModelSnapshot.this);
+            }
+        };
+    }
+
+    /**
+     * Splits top level tasks into parts with about the same amount of tasks, so the parts can be
+     * walked by different threads. Top level task with all its sub tasks is never split, so
+     * there can be less parts than requested.
+     *
+     * @param parts wanted amount of parts
+     * @return snapshots of consecutive top level tasks, in the original order
+     */
+    public List<TaskModelSnapshot> split(int parts) {
+        assert parts > 0;
+
+        List<TaskModelSnapshot> snapshots = new ArrayList<TaskModelSnapshot>(Math.min(parts, tasks.length));
+        int from = 0;
+        long count = 0;
+        for (int i = 0; i < tasks.length; i++) {
+            count += tasks[i].getTaskCount();
+            // part ends when tasks up to here have reached the share of this and previous parts
+            if (count * parts >= (long) taskCount * (snapshots.size() + 1) || i == tasks.length - 1) {
+                TaskSnapshot[] part = new TaskSnapshot[i + 1 - from];
+                System.arraycopy(tasks, from, part, 0, part.length);
+                snapshots.add(new TaskModelSnapshot(part));
+                from = i + 1;
+            }
+        }
+
+        return snapshots;
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2006 Sergiy Dubovik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dubik.tasks.model;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+
+/**
+ * Immutable copy of a task and its sub tasks. Unchanged sub trees are shared between
+ * snapshots of different versions of the model, that's why snapshot doesn't know
+ * its parent and {@link #getParent()} always returns <code>null</code>.
+ * Snapshot can be read from any thread.
+ *
+ * @author Sergiy Dubovik
+ * @see ITaskModel#snapshot()
+ */
+public final class TaskSnapshot implements ITask {
+    private final long id;
+    private final String title;
+    private final TaskPriority priority;
+    private final long estimatedTime;
+    private final long actualTime;
+    private final long creationTime;
+    private final boolean completed;
+    private final boolean highlighted;
+    private final TaskHighlightingType highlightingType;
+    private final int completionRatio;
+    private final int completedSubTasks;
+    private final TaskPriority highestPriority;
+    private final TaskPriority highestFirstLevelPriority;
+    private final long modificationStamp;
+    private final TaskSnapshot[] subTasks;
+    private final int taskCount;
+
+    /**
+     * Creates snapshot of the task.
+     *
+     * @param task     task
+     * @param subTasks snapshots of task's sub tasks
+     */
+    public TaskSnapshot(ITask task, List<TaskSnapshot> subTasks) {
+        id = task.getId();
+        title = task.getTitle();
+        priority = task.getPriority();
+        estimatedTime = task.getEstimatedTime();
+        actualTime = task.getActualTime();
+        creationTime = task.getCreationTime();
+        completed = task.isCompleted();
+        highlighted = task.isHighlighted();
+        highlightingType = task.getHighlightingType();
+        completionRatio = task.getCompletionRatio();
+        completedSubTasks = task.getCompletedSubTasksCount();
+        highestPriority = task.getHighestPriority(false);
+        highestFirstLevelPriority = task.getHighestPriority(true);
+        modificationStamp = task.getModificationStamp();
+        this.subTasks = subTasks.toArray(new TaskSnapshot[subTasks.size()]);
+
+        int count = 1;
+        for (TaskSnapshot subTask : this.subTasks)
+            count += subTask.taskCount;
+        taskCount = count;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    @NotNull
+    public TaskPriority getPriority() {
+        return priority;
+    }
+
+    public long getEstimatedTime() {
+        return estimatedTime;
+    }
+
+    public long getActualTime() {
+        return actualTime;
+    }
+
+    public long getCreationTime() {
+        return creationTime;
+    }
+
+    public boolean isCompleted() {
+        return completed;
+    }
+
+    public boolean isHighlighted() {
+        return highlighted;
+    }
+
+    @NotNull
+    public TaskHighlightingType getHighlightingType() {
+        return highlightingType;
+    }
+
+    public int getCompletionRatio() {
+        return completionRatio;
+    }
+
+    public int getCompletedSubTasksCount() {
+        return completedSubTasks;
+    }
+
+    public long getModificationStamp() {
+        return modificationStamp;
+    }
+
+    @NotNull
+    public TaskPriority getHighestPriority(boolean onlyFirstLevel) {
+        return onlyFirstLevel ? highestFirstLevelPriority : highestPriority;
+    }
+
+    public int size() {
+        return subTasks.length;
+    }
+
+    public TaskSnapshot get(int index) {
+        return subTasks[index];
+    }
+
+    public Iterable<ITask> descendants() {
+        return TaskIterator.descendantsOf(this);
+    }
+
+    /**
+     * Returns amount of tasks in this sub tree.
+     *
+     * @return amount of sub tasks and their sub tasks plus one for the task itself
+     */
+    public int getTaskCount() {
+        return taskCount;
+    }
+
+    public ITask getParent() {
+        return null;
+    }
+
+    public int indexOf(ITask subTask) {
+        for (int i = 0; i < subTasks.length; i++) {
+            if (subTasks[i] == subTask)
+                return i;
+        }
+
+        return -1;
+    }
+
+    public void add(@NotNull ITask task) {
+        throw new UnsupportedOperationException("task snapshot can't be modified");
+    }
+
+    public void moveUp(ITask task) {
+        throw new UnsupportedOperationException("task snapshot can't be modified");
+    }
+
+    public void moveDown(ITask task) {
+        throw new UnsupportedOperationException("task snapshot can't be modified");
+    }
+
+    public String toString() {
+        return title;
+    }
+}
@@ -17,16 +17,23 @@ package org.dubik.tasks.model.impl;
 
 import org.dubik.tasks.model.ITask;
 import org.dubik.tasks.model.TaskHighlightingType;
+import org.dubik.tasks.model.TaskIterator;
 import org.dubik.tasks.model.TaskPriority;
+import org.dubik.tasks.model.TaskSnapshot;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.List;
-import java.util.Vector;
+import java.util.Map;
 
 /**
  * @author Sergiy Dubovik
  */
 public class Task implements ITask {
+    private static final TaskPriority[] PRIORITIES = TaskPriority.values();
+
+    private long id;
     private String title;
     private TaskPriority priority = TaskPriority.Normal;
     private long estimatedTime;
@@ -35,9 +42,35 @@ public class Task implements ITask {
     private boolean completed;
     private boolean highlighted;
     private TaskHighlightingType highlightingType = TaskHighlightingType.Red;
-    private List<ITask> subTasks = new Vector<ITask>();
+    // model is changed in the event dispatch thread only, other threads read snapshots
+    private List<ITask> subTasks = new ArrayList<ITask>(2);
     private ITask parent;
 
+    // Aggregates rolled up from sub tasks, see recalculate()
+    private long totalEstimatedTime;
+    private long totalActualTime;
+    private boolean totalCompleted;
+    private int completedLeaves;
+    private int completedSubTasks;
+    private int completionRatio;
+    private TaskPriority highestPriority = TaskPriority.Normal;
+    private TaskPriority highestFirstLevelPriority = TaskPriority.Normal;
+
+    // sums of aggregates of direct sub tasks, a change of a sub task is applied as a difference
+    private long subTasksEstimatedTime;
+    private long subTasksActualTime;
+    private int subTasksCompletedLeaves;
+    private int subTasksCompleted;
+    private long subTasksCompletionRatio;
+    // amounts of direct sub tasks by own and by highest priority, null until first sub task is added
+    private int[] subTasksByPriority;
+    private int[] subTasksByHighestPriority;
+
+    private long modificationStamp;
+
+    // immutable copy of this subtree, null if task or its sub tasks changed since it was made
+    private TaskSnapshot snapshot;
+
     public Task() {
     }
 
@@ -48,12 +81,23 @@ public class Task implements ITask {
     public Task(String title, TaskPriority priority) {
         this.title = title;
         this.priority = priority;
+        recalculate();
     }
 
     public Task(String title, TaskPriority priority, long estimatedTime) {
         this.title = title;
         this.priority = priority;
         this.estimatedTime = estimatedTime;
+        recalculate();
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    void setId(long id) {
+        this.id = id;
+        modified();
     }
 
     public String getTitle() {
@@ -62,6 +106,7 @@ public class Task implements ITask {
 
     public void setTitle(String title) {
         this.title = title;
+        modified();
     }
 
     @NotNull
@@ -73,39 +118,29 @@ public class Task implements ITask {
     }
 
     public void setPriority(@NotNull TaskPriority priority) {
+        Aggregates old = new Aggregates(this);
         this.priority = priority;
+        update(old);
     }
 
     public long getEstimatedTime() {
-        long estimated = 0;
-        if (subTasks.size() > 0) {
-            for (ITask task : subTasks)
-                estimated += task.getEstimatedTime();
-        } else {
-            estimated = estimatedTime;
-        }
-
-        return estimated;
+        return totalEstimatedTime;
     }
 
     public long getActualTime() {
-        long actual = 0;
-        if (subTasks.size() > 0) {
-            for (ITask task : subTasks)
-                actual += task.getActualTime();
-        } else {
-            actual = actualTime;
-        }
-
-        return actual;
+        return totalActualTime;
     }
 
     public void setActualTime(long actualTime) {
+        Aggregates old = new Aggregates(this);
         this.actualTime = actualTime;
+        update(old);
     }
 
     public void setEstimatedTime(long estimatedTime) {
+        Aggregates old = new Aggregates(this);
         this.estimatedTime = estimatedTime;
+        update(old);
     }
 
     public long getCreationTime() {
@@ -113,21 +148,12 @@ public class Task implements ITask {
     }
 
     public boolean isCompleted() {
-        boolean compl;
-        if (subTasks.size() > 0) {
-            compl = true;
-            for (ITask task : subTasks)
-                compl = compl && task.isCompleted();
-            return compl;
-        } else {
-            compl = completed;
-        }
-
-        return compl;
+        return totalCompleted;
     }
 
     public void setHighlighted(boolean highlighted) {
         this.highlighted = highlighted;
+        modified();
     }
 
     public boolean isHighlighted() {
@@ -141,27 +167,55 @@ public class Task implements ITask {
 
     public void setHighlightingType(@NotNull TaskHighlightingType hightlightingType) {
         this.highlightingType = hightlightingType;
+        modified();
     }
 
     public int getCompletionRatio() {
-        int totalTasks = subTasks.size();
-        if (totalTasks == 0)
-            return isCompleted() ? 100 : 0;
+        return completionRatio;
+    }
 
-        int cumCompletionRatio = 0;
-        for (ITask task : subTasks) {
-            cumCompletionRatio += task.getCompletionRatio();
-        }
+    public int getCompletedSubTasksCount() {
+        return completedSubTasks;
+    }
 
-        return cumCompletionRatio / totalTasks;
+    public long getModificationStamp() {
+        return modificationStamp;
+    }
+
+    @NotNull
+    public TaskPriority getHighestPriority(boolean onlyFirstLevel) {
+        return onlyFirstLevel ? highestFirstLevelPriority : highestPriority;
+    }
+
+    /**
+     * Returns amount of completed tasks without sub tasks in this subtree.
+     * Task without sub tasks counts itself.
+     *
+     * @return amount of completed leaf tasks
+     */
+    public int getCompletedLeavesCount() {
+        return completedLeaves;
+    }
+
+    /**
+     * Returns estimated time of the task itself, unlike {@link #getEstimatedTime()}
+     * sub tasks are not included.
+     *
+     * @return own estimated time
+     */
+    long getOwnEstimatedTime() {
+        return estimatedTime;
     }
 
     public void setCompleted(boolean completed) {
+        Aggregates old = new Aggregates(this);
         this.completed = completed;
+        update(old);
     }
 
     public void setCreationTime(long creationTime) {
         this.creationTime = creationTime;
+        modified();
     }
 
     public String toString() {
@@ -169,11 +223,28 @@ public class Task implements ITask {
     }
 
     public void add(@NotNull ITask task) {
+        Aggregates old = new Aggregates(this);
         subTasks.add(task);
+        addSubTaskAggregates(new Aggregates(task), 1);
+        update(old);
+    }
+
+    /**
+     * Adds sub task without updating aggregates of this task and its parents, so that
+     * many tasks can be added before aggregates are rebuilt by {@link #rebuildAggregates(boolean)}.
+     *
+     * @param task sub task
+     */
+    void addWithoutAggregates(@NotNull ITask task) {
+        subTasks.add(task);
+        modified();
     }
 
     public void add(int index, @NotNull ITask task) {
+        Aggregates old = new Aggregates(this);
         subTasks.add(index, task);
+        addSubTaskAggregates(new Aggregates(task), 1);
+        update(old);
     }
 
     public int size() {
@@ -184,6 +255,10 @@ public class Task implements ITask {
         return subTasks.get(index);
     }
 
+    public Iterable<ITask> descendants() {
+        return TaskIterator.descendantsOf(this);
+    }
+
     public void setParent(ITask parent) {
         this.parent = parent;
     }
@@ -193,7 +268,10 @@ public class Task implements ITask {
     }
 
     public void remove(ITask task) {
-        subTasks.remove(task);
+        Aggregates old = new Aggregates(this);
+        if (subTasks.remove(task))
+            addSubTaskAggregates(new Aggregates(task), -1);
+        update(old);
     }
 
     public int indexOf(ITask subTask) {
@@ -207,6 +285,7 @@ public class Task implements ITask {
         if (index > 1) {
             subTasks.remove(index);
             subTasks.add(index - 1, task);
+            modified();
         }
     }
 
@@ -215,6 +294,267 @@ public class Task implements ITask {
         if (index < subTasks.size() - 1) {
             subTasks.remove(index);
             subTasks.add(index + 1, task);
+            modified();
+        }
+    }
+
+    /**
+     * Recalculates aggregates of this task and applies their difference to sums of all
+     * parents, so every parent costs the same regardless of amount of its sub tasks.
+     *
+     * @param old aggregates of this task before it was changed
+     */
+    private void update(Aggregates old) {
+        recalculate();
+
+        Task task = this;
+        while (task.getParent() instanceof Task) {
+            Task parent = (Task) task.getParent();
+            Aggregates oldParent = new Aggregates(parent);
+            parent.addSubTaskAggregates(old, -1);
+            parent.addSubTaskAggregates(new Aggregates(task), 1);
+            parent.recalculate();
+
+            task = parent;
+            old = oldParent;
+        }
+    }
+
+    /**
+     * Calculates sums of sub tasks from scratch, aggregates of sub tasks must be up to date.
+     *
+     * @param updateParents <code>true</code> if difference has to be applied to parents, otherwise
+     *                      they must be rebuilt as well
+     */
+    void rebuildAggregates(boolean updateParents) {
+        Aggregates old = new Aggregates(this);
+        subTasksEstimatedTime = 0;
+        subTasksActualTime = 0;
+        subTasksCompletedLeaves = 0;
+        subTasksCompleted = 0;
+        subTasksCompletionRatio = 0;
+        subTasksByPriority = null;
+        subTasksByHighestPriority = null;
+        for (ITask task : subTasks)
+            addSubTaskAggregates(new Aggregates(task), 1);
+
+        if (updateParents)
+            update(old);
+        else
+            recalculate();
+    }
+
+    private void addSubTaskAggregates(Aggregates subTask, int sign) {
+        if (subTasksByPriority == null) {
+            subTasksByPriority = new int[PRIORITIES.length];
+            subTasksByHighestPriority = new int[PRIORITIES.length];
+        }
+
+        subTasksEstimatedTime += sign * subTask.estimatedTime;
+        subTasksActualTime += sign * subTask.actualTime;
+        subTasksCompletedLeaves += sign * subTask.completedLeaves;
+        subTasksCompleted += subTask.completed ? sign : 0;
+        subTasksCompletionRatio += sign * subTask.completionRatio;
+        subTasksByPriority[subTask.priority.ordinal()] += sign;
+        subTasksByHighestPriority[subTask.highestPriority.ordinal()] += sign;
+    }
+
+    /**
+     * Recalculates aggregates of this task from own values, if it doesn't have
+     * sub tasks, or from sums of aggregates of direct sub tasks.
+     */
+    private void recalculate() {
+        modified();
+
+        if (subTasks.size() == 0) {
+            totalEstimatedTime = estimatedTime;
+            totalActualTime = actualTime;
+            totalCompleted = completed;
+            completedLeaves = completed ? 1 : 0;
+            completedSubTasks = 0;
+            completionRatio = completed ? 100 : 0;
+            highestPriority = getPriority();
+            highestFirstLevelPriority = getPriority();
+            return;
+        }
+
+        totalEstimatedTime = subTasksEstimatedTime;
+        totalActualTime = subTasksActualTime;
+        totalCompleted = subTasksCompleted == subTasks.size();
+        completedLeaves = subTasksCompletedLeaves;
+        completedSubTasks = subTasksCompleted;
+        completionRatio = (int) (subTasksCompletionRatio / subTasks.size());
+        highestPriority = highest(getPriority(), subTasksByHighestPriority);
+        highestFirstLevelPriority = highest(getPriority(), subTasksByPriority);
+    }
+
+    static private TaskPriority highest(TaskPriority priority, int[] amounts) {
+        // sums of sub tasks added during batch aren't there until the batch ends
+        if (amounts == null)
+            return priority;
+
+        for (TaskPriority subTaskPriority : PRIORITIES) {
+            if (amounts[subTaskPriority.ordinal()] != 0)
+                priority = priority.max(subTaskPriority);
+        }
+
+        return priority;
+    }
+
+    /**
+     * Returns immutable copy of this task and its sub tasks. Copy is kept until the task or
+     * one of its sub tasks is changed, so unchanged sub trees are shared between snapshots.
+     *
+     * @return snapshot of the task
+     */
+    TaskSnapshot snapshot() {
+        if (snapshot == null)
+            snapshot = snapshotOf(this);
+
+        return snapshot;
+    }
+
+    /**
+     * Returns immutable copy of the task and its sub tasks. Sub trees which already have
+     * snapshots are skipped, the rest is copied from the bottom up.
+     *
+     * @param task task
+     * @return snapshot of the task
+     */
+    static TaskSnapshot snapshotOf(ITask task) {
+        // in pre-order parent goes before its sub tasks, so in reverse order sub tasks go first
+        List<ITask> changedTasks = new ArrayList<ITask>();
+        for (TaskIterator it = TaskIterator.preOrder(task); it.hasNext();) {
+            ITask changedTask = it.next();
+            if (changedTask instanceof Task && ((Task) changedTask).snapshot != null)
+                it.skipSubTasks();
+            else
+                changedTasks.add(changedTask);
+        }
+
+        // snapshots of tasks which are not Task, they don't keep them
+        Map<ITask, TaskSnapshot> otherSnapshots = new IdentityHashMap<ITask, TaskSnapshot>();
+        TaskSnapshot taskSnapshot = null;
+        for (int i = changedTasks.size() - 1; i >= 0; i--) {
+            ITask changedTask = changedTasks.get(i);
+            List<TaskSnapshot> subSnapshots = new ArrayList<TaskSnapshot>(changedTask.size());
+            for (int j = 0; j < changedTask.size(); j++) {
+                ITask subTask = changedTask.get(j);
+                if (subTask instanceof Task)
+                    subSnapshots.add(((Task) subTask).snapshot);
+                else
+                    subSnapshots.add(otherSnapshots.get(subTask));
+            }
+
+            taskSnapshot = new TaskSnapshot(changedTask, subSnapshots);
+            if (changedTask instanceof Task)
+                ((Task) changedTask).snapshot = taskSnapshot;
+            else
+                otherSnapshots.put(changedTask, taskSnapshot);
+        }
+
+        if (taskSnapshot == null)
+            taskSnapshot = ((Task) task).snapshot;
+
+        return taskSnapshot;
+    }
+
+    private void modified() {
+        modificationStamp++;
+        invalidateSnapshot();
+    }
+
+    /**
+     * Drops snapshots of this task and its parents. If snapshot of a parent is already
+     * dropped, snapshots of its parents are dropped as well, since they contain it.
+     */
+    private void invalidateSnapshot() {
+        ITask task = this;
+        while (task instanceof Task) {
+            Task mutableTask = (Task) task;
+            if (mutableTask.snapshot == null)
+                break;
+
+            mutableTask.snapshot = null;
+            task = mutableTask.getParent();
+        }
+    }
+
+    /**
+     * Checks that cached aggregates of this task and its sub tasks are equal to
+     * the ones calculated from scratch.
+     *
+     * @throws IllegalStateException if cached aggregates are out of date
+     */
+    void checkAggregates() {
+        // aggregates of sub tasks are checked before they are used by their parents
+        for (TaskIterator it = TaskIterator.postOrder(this); it.hasNext();) {
+            ITask task = it.next();
+            if (task instanceof Task)
+                ((Task) task).checkOwnAggregates();
+        }
+    }
+
+    private void checkOwnAggregates() {
+        long estimated = estimatedTime;
+        long actual = actualTime;
+        boolean compl = completed;
+        int leaves = completed ? 1 : 0;
+        int completedTasks = 0;
+        int ratio = completed ? 100 : 0;
+        TaskPriority highest = getPriority();
+        TaskPriority highestFirstLevel = getPriority();
+        if (subTasks.size() != 0) {
+            // sums are calculated from scratch, not taken from subTasks* fields
+            estimated = 0;
+            actual = 0;
+            compl = true;
+            leaves = 0;
+            long cumCompletionRatio = 0;
+            for (ITask task : subTasks) {
+                highest = highest.max(task.getHighestPriority(false));
+                highestFirstLevel = highestFirstLevel.max(task.getPriority());
+                estimated += task.getEstimatedTime();
+                actual += task.getActualTime();
+                cumCompletionRatio += task.getCompletionRatio();
+                if (task.isCompleted())
+                    completedTasks++;
+                else
+                    compl = false;
+
+                if (task instanceof Task)
+                    leaves += ((Task) task).getCompletedLeavesCount();
+            }
+            ratio = (int) (cumCompletionRatio / subTasks.size());
+        }
+
+        if (estimated != totalEstimatedTime || actual != totalActualTime || compl != totalCompleted ||
+                leaves != completedLeaves || completedTasks != completedSubTasks || ratio != completionRatio ||
+                highest != highestPriority || highestFirstLevel != highestFirstLevelPriority)
+            throw new IllegalStateException("aggregates of task '" + title + "' are out of date");
+    }
+
+    /**
+     * Aggregates of a task as its parent sees them, kept to apply the difference
+     * when the task changes.
+     */
+    private static class Aggregates {
+        private long estimatedTime;
+        private long actualTime;
+        private boolean completed;
+        private int completedLeaves;
+        private int completionRatio;
+        private TaskPriority priority;
+        private TaskPriority highestPriority;
+
+        Aggregates(ITask task) {
+            estimatedTime = task.getEstimatedTime();
+            actualTime = task.getActualTime();
+            completed = task.isCompleted();
+            completedLeaves = task instanceof Task ? ((Task) task).getCompletedLeavesCount() : 0;
+            completionRatio = task.getCompletionRatio();
+            priority = task.getPriority();
+            highestPriority = task.getHighestPriority(false);
         }
     }
 }
\ No newline at end of file
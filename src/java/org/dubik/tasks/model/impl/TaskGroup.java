@@ -18,19 +18,32 @@ package org.dubik.tasks.model.impl;
 import org.dubik.tasks.model.*;
 import org.jetbrains.annotations.NotNull;
 
-import java.util.List;
-import java.util.Vector;
+import java.util.*;
 
 /**
+ * Task group. Either contains other groups or shows top level tasks of the model accepted
+ * by the filter. Tasks of the group are collected once and then kept up to date by model
+ * events. Group doesn't register itself in the model, owner of the group must pass events
+ * to it, so that group is updated before the owner handles them.
+ *
  * @author Sergiy Dubovik
  */
-public class TaskGroup implements ITaskGroup {
+public class TaskGroup implements ITaskGroup, ITaskModelChangeListener {
     private String title;
     private List<ITaskGroup> taskGroups;
     private ITaskFilter filter;
 
     private ITaskModel model;
 
+    // tasks of the model which belong to the group, null if they have to be collected again
+    private List<ITask> members;
+    // positions of members in the list, so JTree looks up index of a row without scanning the group
+    private Map<ITask, Integer> memberIndexes;
+    private Set<ITask> completedMembers;
+
+    // increased on every event, since it can change amount of tasks or completed tasks in the group
+    private long modificationStamp;
+
     public TaskGroup(String name) {
         taskGroups = new Vector<ITaskGroup>();
         this.title = name;
@@ -41,6 +54,7 @@ public class TaskGroup implements ITaskGroup {
     }
 
     public void add(ITaskGroup taskGroup) {
+        modificationStamp++;
         if (model == null)
             taskGroups.add(taskGroup);
     }
@@ -60,12 +74,37 @@ public class TaskGroup implements ITaskGroup {
         return taskGroups.get(index);
     }
 
+    public Iterable<ITask> descendants() {
+        return TaskIterator.descendantsOf(this);
+    }
+
     public ITask getParent() {
         return null;
     }
 
     public int indexOf(ITask subTask) {
-        return -1;
+        if (model != null) {
+            collectMembers();
+            Integer index = memberIndexes.get(subTask);
+            return index != null ? index : -1;
+        }
+
+        return taskGroups.indexOf(subTask);
+    }
+
+    /**
+     * Checks whether task belongs to the group.
+     *
+     * @param task task or task group
+     * @return <code>true</code> if task is in the group
+     */
+    public boolean contains(ITask task) {
+        if (model != null) {
+            collectMembers();
+            return memberIndexes.containsKey(task);
+        }
+
+        return taskGroups.contains(task);
     }
 
     public void moveUp(ITask task) {
@@ -76,14 +115,22 @@ public class TaskGroup implements ITaskGroup {
 
     public void setTaskFilter(ITaskFilter filter) {
         this.filter = filter;
+        members = null;
+        modificationStamp++;
     }
 
     public String getTitle() {
         return title;
     }
 
+    public long getId() {
+        return 0;
+    }
+
     public void setTaskModel(ITaskModel model) {
         this.model = model;
+        members = null;
+        modificationStamp++;
     }
 
     @NotNull
@@ -120,6 +167,30 @@ public class TaskGroup implements ITaskGroup {
         return 0;
     }
 
+    public int getCompletedSubTasksCount() {
+        if (model != null) {
+            collectMembers();
+            return completedMembers.size();
+        }
+
+        int completed = 0;
+        for (int i = 0; i < size(); i++) {
+            if (get(i).isCompleted())
+                completed++;
+        }
+
+        return completed;
+    }
+
+    public long getModificationStamp() {
+        return modificationStamp;
+    }
+
+    @NotNull
+    public TaskPriority getHighestPriority(boolean onlyFirstLevel) {
+        return getPriority();
+    }
+
     public void add(@NotNull ITask task) {
 
     }
@@ -129,37 +200,179 @@ public class TaskGroup implements ITaskGroup {
     }
 
     private int sizeOfModel() {
+        collectMembers();
+        return members.size();
+    }
+
+    private ITask getFromModel(int index) {
+        collectMembers();
+        if (index < 0 || index >= members.size())
+            return null;
+
+        return members.get(index);
+    }
+
+    private void collectMembers() {
         if (model == null)
             throw new IllegalStateException("taskmodel is not set, you are trying to access it");
 
-        int size = 0;
-        if (filter != null) {
-            for (int i = 0; i < model.size(); i++)
-                if (filter.accept(model.getTask(i)))
-                    ++size;
-            return size;
-        } else {
-            return model.size();
+        if (members != null)
+            return;
+
+        members = new ArrayList<ITask>();
+        memberIndexes = new HashMap<ITask, Integer>();
+        completedMembers = new HashSet<ITask>();
+        for (int i = 0; i < model.size(); i++) {
+            ITask task = model.getTask(i);
+            if (accept(task)) {
+                addMember(task);
+                if (task.isCompleted())
+                    completedMembers.add(task);
+            }
         }
     }
 
-    private ITask getFromModel(int index) {
-        if (model == null)
-            throw new IllegalStateException("taskmodel is not set, you are trying to access it");
+    private void addMember(ITask task) {
+        memberIndexes.put(task, members.size());
+        members.add(task);
+    }
+
+    /**
+     * Removes task from members, positions of members after it are shifted.
+     *
+     * @param task task
+     * @return <code>true</code> if task was a member
+     */
+    private boolean removeMember(ITask task) {
+        Integer index = memberIndexes.remove(task);
+        if (index == null)
+            return false;
+
+        members.remove(index.intValue());
+        for (int i = index; i < members.size(); i++)
+            memberIndexes.put(members.get(i), i);
+
+        return true;
+    }
+
+    private boolean accept(ITask task) {
+        return filter == null || filter.accept(task);
+    }
 
-        if (filter != null) {
-            for (int i = 0; i < model.size(); i++) {
-                if (filter.accept(model.getTask(i))) {
-                    if (index == 0)
-                        return model.getTask(i);
+    /**
+     * Updates completion state of top level task which contains specified task.
+     *
+     * @param task changed task or its parent, can be <code>null</code>
+     */
+    private void updateCompletion(ITask task) {
+        if (task == null)
+            return;
+
+        ITask topTask = task;
+        while (topTask.getParent() != null)
+            topTask = topTask.getParent();
+
+        if (!memberIndexes.containsKey(topTask))
+            return;
+
+        if (topTask.isCompleted())
+            completedMembers.add(topTask);
+        else
+            completedMembers.remove(topTask);
+    }
 
-                    --index;
-                }
+    public void handleAddTaskEvent(TaskChangeEvent event) {
+        modificationStamp++;
+        if (model == null) {
+            for (ITaskGroup taskGroup : taskGroups) {
+                if (taskGroup instanceof ITaskModelChangeListener)
+                    ((ITaskModelChangeListener) taskGroup).handleAddTaskEvent(event);
+            }
+            return;
+        }
+
+        if (members == null)
+            return;
+
+        ITask task = event.getTask();
+        if (event.getParent() == null) {
+            if (!accept(task))
+                return;
+
+            // new tasks are usually appended, otherwise order has to be restored
+            if (event.getNewIndex() == model.size() - 1) {
+                addMember(task);
+                updateCompletion(task);
+            } else {
+                members = null;
             }
         } else {
-            return model.getTask(index);
+            updateCompletion(event.getParent());
         }
+    }
 
-        return null;
+    public void handlePreDeleteTaskEvent(TaskChangeEvent event) {
+    }
+
+    public void handleDeleteTaskEvent(TaskChangeEvent event) {
+        modificationStamp++;
+        if (model == null) {
+            for (ITaskGroup taskGroup : taskGroups) {
+                if (taskGroup instanceof ITaskModelChangeListener)
+                    ((ITaskModelChangeListener) taskGroup).handleDeleteTaskEvent(event);
+            }
+            return;
+        }
+
+        if (members == null)
+            return;
+
+        ITask task = event.getTask();
+        if (event.getOldParent() == null) {
+            if (removeMember(task))
+                completedMembers.remove(task);
+        } else {
+            updateCompletion(event.getOldParent());
+        }
+    }
+
+    public void handlePreChangeTaskEvent(TaskChangeEvent event) {
+    }
+
+    public void handleChangeTaskEvent(TaskChangeEvent event) {
+        modificationStamp++;
+        if (model == null) {
+            for (ITaskGroup taskGroup : taskGroups) {
+                if (taskGroup instanceof ITaskModelChangeListener)
+                    ((ITaskModelChangeListener) taskGroup).handleChangeTaskEvent(event);
+            }
+            return;
+        }
+
+        if (members == null)
+            return;
+
+        ITask task = event.getTask();
+        boolean topLevel = event.getOldParent() == null || event.getParent() == null;
+        if (topLevel && (event.isMoved() || accept(task) != memberIndexes.containsKey(task))) {
+            members = null;
+            return;
+        }
+
+        updateCompletion(event.getOldParent());
+        updateCompletion(task);
+    }
+
+    public void handleBatchEvent(TaskBatchEvent event) {
+        modificationStamp++;
+        if (model == null) {
+            for (ITaskGroup taskGroup : taskGroups) {
+                if (taskGroup instanceof ITaskModelChangeListener)
+                    ((ITaskModelChangeListener) taskGroup).handleBatchEvent(event);
+            }
+            return;
+        }
+
+        members = null;
     }
 }
\ No newline at end of file
@@ -18,19 +18,42 @@ package org.dubik.tasks.model.impl;
 import org.dubik.tasks.model.*;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Vector;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * @author Sergiy Dubovik
  */
 public class TaskModel implements ITaskModel {
     private List<ITask> tasks;
+    private Map<Long, ITask> tasksById = new HashMap<Long, ITask>();
+    private long lastId;
 
-    private List<ITaskModelChangeListener> changeListeners = new Vector<ITaskModelChangeListener>();
+    // snapshot of the model, null if model changed since it was made
+    private TaskModelSnapshot snapshot;
+
+    // events are fired far more often than listeners are changed, copy on write lets
+    // firing iterate without locking and listeners unregister while event is handled
+    private CopyOnWriteArrayList<ITaskModelChangeListener> changeListeners =
+            new CopyOnWriteArrayList<ITaskModelChangeListener>();
+
+    private int batchDepth;
+    private Set<ITask> batchAddedTasks = new LinkedHashSet<ITask>();
+    private Set<ITask> batchChangedTasks = new LinkedHashSet<ITask>();
+    private Set<ITask> batchDeletedTasks = new LinkedHashSet<ITask>();
+    // tasks which got sub tasks during batch and their parents, aggregates are rebuilt when batch ends
+    private Set<Task> batchStaleTasks = new HashSet<Task>();
+
+    private boolean checkAggregates = Boolean.getBoolean("org.dubik.tasks.checkAggregates");
 
     public TaskModel() {
-        tasks = new Vector<ITask>();
+        tasks = new ArrayList<ITask>();
     }
 
     public ITask addTask(String title, TaskPriority priority, long estimatedTime) {
@@ -45,59 +68,84 @@ public class TaskModel implements ITaskModel {
 
     public ITask addTask(ITask parent, String title, TaskPriority priority, long estimatedTime,
                          long creationTime, boolean completed, boolean highlighed) {
+        return addTask(parent, title, priority, estimatedTime, 0, creationTime, completed, highlighed);
+    }
+
+    public ITask addTask(ITask parent, String title, TaskPriority priority, long estimatedTime, long actualTime,
+                         long creationTime, boolean completed, boolean highlighted) {
+        return addTask(0, parent, title, priority, estimatedTime, actualTime, creationTime, completed, highlighted);
+    }
+
+    public ITask addTask(long id, ITask parent, String title, TaskPriority priority, long estimatedTime,
+                         long actualTime, long creationTime, boolean completed, boolean highlighted) {
         Task task = new Task(title, priority, estimatedTime);
+        registerTask(task, id);
         task.setCreationTime(creationTime);
+        task.setActualTime(actualTime);
         task.setCompleted(completed);
-        task.setHighlighted(highlighed);
+        task.setHighlighted(highlighted);
         task.setParent(parent);
 
         if (parent == null) {
             tasks.add(task);
+        } else if (batchDepth > 0 && parent instanceof Task) {
+            // rolling up every added task to the top would make loading of deep trees quadratic
+            ((Task) parent).addWithoutAggregates(task);
+            markStale((Task) parent);
         } else {
             parent.add(task);
+            verifyAggregates(parent);
         }
 
-        fireAddTaskEvent(task);
-
-        return task;
-    }
-
-    public ITask addTask(ITask parent, String title, TaskPriority priority, long estimatedTime, long actualTime,
-                         long creationTime, boolean completed, boolean highlighted) {
-        Task task = (Task) addTask(parent, title, priority, estimatedTime, creationTime, completed, highlighted);
-        task.setActualTime(actualTime);
+        fireAddTaskEvent(createAddEvent(task));
 
         return task;
     }
 
     public void addTask(ITask parentTask, String title, TaskPriority priority, long estimatedTime) {
         Task task = new Task(title, priority, estimatedTime);
+        registerTask(task, 0);
         parentTask.add(task);
         task.setParent(parentTask);
-        fireAddTaskEvent(task);
+        verifyAggregates(parentTask);
+        fireAddTaskEvent(createAddEvent(task));
     }
 
     protected void addTask(ITask task) {
         assert task != null;
+        registerTasks(task);
         tasks.add(task);
-        fireAddTaskEvent(task);
+        fireAddTaskEvent(createAddEvent(task));
     }
 
     public void updateTask(ITask task, ITask parent, String title, TaskPriority priority, long estimatedTime) {
         assert task != null;
 
-        firePreChangeTaskEvent(task);
+        int changedProperties = 0;
+        if (title == null ? task.getTitle() != null : !title.equals(task.getTitle()))
+            changedProperties |= TaskChangeEvent.TITLE;
+        if (priority != task.getPriority())
+            changedProperties |= TaskChangeEvent.PRIORITY;
+        // estimated time of a parent includes its sub tasks, only own one is replaced
+        if (estimatedTime != ((Task) task).getOwnEstimatedTime())
+            changedProperties |= TaskChangeEvent.TIMES;
+
+        ITask oldParent = task.getParent();
+        int oldIndex = eventIndexOf(oldParent, task);
+        firePreChangeTaskEvent(createChangeEvent(task, changedProperties));
 
         Task mutableTask = (Task) task;
         mutableTask.setTitle(title);
         mutableTask.setPriority(priority);
         mutableTask.setEstimatedTime(estimatedTime);
+        verifyAggregates(mutableTask);
 
         // Update parents only if it was changed
         if (parent != task.getParent()) {
             Task mutableOldParent = (Task) task.getParent();
             if (mutableOldParent != null) {
                 mutableOldParent.remove(task);
+                verifyAggregates(mutableOldParent);
                 if (parent == null) {
                     tasks.add(task);
                 }
@@ -111,79 +159,94 @@ public class TaskModel implements ITaskModel {
             }
 
             mutableTask.setParent(parent);
+            verifyAggregates(parent);
         }
 
-        fireChangeTaskEvent(task);
+        fireChangeTaskEvent(new TaskChangeEvent(task, oldParent, oldIndex, parent, eventIndexOf(parent, task),
+                changedProperties));
     }
 
     public void updateActualTime(ITask task, long actualTime) {
         assert task != null;
         assert actualTime >= 0;
 
-        firePreChangeTaskEvent(task);
+        TaskChangeEvent event = createChangeEvent(task, TaskChangeEvent.TIMES);
+        firePreChangeTaskEvent(event);
 
         Task mutableTask = (Task) task;
         mutableTask.setActualTime(actualTime);
+        verifyAggregates(mutableTask);
 
-        fireChangeTaskEvent(task);
+        fireChangeTaskEvent(event);
     }
 
     public void deleteTask(ITask task) {
         assert task != null;
 
-        firePreDeleteTaskEvent(task);
         ITask parent = task.getParent();
+        TaskChangeEvent event = new TaskChangeEvent(task, parent, eventIndexOf(parent, task), null, -1,
+                TaskChangeEvent.ALL);
+
+        firePreDeleteTaskEvent(event);
         if (parent == null)
             tasks.remove(task);
         else {
             Task mutableParent = (Task) parent;
             mutableParent.remove(task);
+            verifyAggregates(mutableParent);
         }
-        fireDeleteTaskEvent(task);
+        unregisterTasks(task);
+        fireDeleteTaskEvent(event);
     }
 
     public void completeTask(ITask task) {
         assert task != null;
 
-        firePreChangeTaskEvent(task);
+        TaskChangeEvent event = createChangeEvent(task, TaskChangeEvent.COMPLETION);
+        firePreChangeTaskEvent(event);
 
         Task mutableTask = (Task) task;
         mutableTask.setCompleted(true);
+        verifyAggregates(mutableTask);
 
-        fireChangeTaskEvent(task);
+        fireChangeTaskEvent(event);
     }
 
     public void uncompleteTask(ITask task) {
         assert task != null;
 
-        firePreChangeTaskEvent(task);
+        TaskChangeEvent event = createChangeEvent(task, TaskChangeEvent.COMPLETION);
+        firePreChangeTaskEvent(event);
 
         Task mutableTask = (Task) task;
         mutableTask.setCompleted(false);
+        verifyAggregates(mutableTask);
 
-        fireChangeTaskEvent(task);
+        fireChangeTaskEvent(event);
     }
 
     public void highlightTask(ITask task) {
         assert task != null;
 
-        firePreChangeTaskEvent(task);
+        TaskChangeEvent event = createChangeEvent(task, TaskChangeEvent.HIGHLIGHTING);
+        firePreChangeTaskEvent(event);
 
         Task mutableTask = (Task) task;
         mutableTask.setHighlighted(true);
 
-        fireChangeTaskEvent(task);
+        fireChangeTaskEvent(event);
     }
 
     public void unhighlightTask(ITask task) {
         assert task != null;
 
-        firePreChangeTaskEvent(task);
+        TaskChangeEvent event = createChangeEvent(task, TaskChangeEvent.HIGHLIGHTING);
+        firePreChangeTaskEvent(event);
 
         Task mutableTask = (Task) task;
         mutableTask.setHighlighted(false);
 
-        fireChangeTaskEvent(task);
+        fireChangeTaskEvent(event);
     }
 
     public boolean canMoveUp(@NotNull ITask task) {
@@ -207,79 +270,128 @@ public class TaskModel implements ITaskModel {
     }
 
     public void moveUp(@NotNull ITask task) {
-        Task parent = (Task) task.getParent();
-
-        firePreDeleteTaskEvent(task);
-
-        if (parent == null) {
-            int index = tasks.indexOf(task);
-            if (index > 0) {
-                tasks.remove(index);
-                fireDeleteTaskEvent(task);
-                tasks.add(index - 1, task);
-            }
-        } else {
-            int index = parent.indexOf(task);
-            if (index > 0) {
-                parent.remove(task);
-                fireDeleteTaskEvent(task);
-                parent.add(index - 1, task);
-            }
-        }
-
-        fireAddTaskEvent(task);
+        int index = indexOf(task.getParent(), task);
+        if (index > 0)
+            moveTask(task, index, index - 1);
     }
 
     public void moveDown(@NotNull ITask task) {
+        ITask parent = task.getParent();
+        int index = indexOf(parent, task);
+        int size = parent == null ? tasks.size() : parent.size();
+        if (index >= 0 && index < size - 1)
+            moveTask(task, index, index + 1);
+    }
+
+    private void moveTask(ITask task, int index, int newIndex) {
         Task parent = (Task) task.getParent();
+        TaskChangeEvent event = new TaskChangeEvent(task, parent, index, parent, newIndex, 0);
 
-        firePreDeleteTaskEvent(task);
+        firePreChangeTaskEvent(event);
 
         if (parent == null) {
-            int index = tasks.indexOf(task);
-            if (index < tasks.size() - 1) {
-                tasks.remove(index);
-                fireDeleteTaskEvent(task);
-                tasks.add(index + 1, task);
-            }
+            tasks.remove(index);
+            tasks.add(newIndex, task);
         } else {
-            int index = parent.indexOf(task);
-            if (index < parent.size() - 1) {
-                parent.remove(task);
-                fireDeleteTaskEvent(task);
-                parent.add(index + 1, task);
-            }
+            parent.remove(task);
+            parent.add(newIndex, task);
         }
 
-        fireAddTaskEvent(task);
+        fireChangeTaskEvent(event);
     }
 
     public void setTaskHighlightingType(ITask task, TaskHighlightingType hightlightingType) {
-        firePreChangeTaskEvent(task);
+        TaskChangeEvent event = createChangeEvent(task, TaskChangeEvent.HIGHLIGHTING);
+        firePreChangeTaskEvent(event);
 
         ((Task) task).setHighlightingType(hightlightingType);
 
-        fireChangeTaskEvent(task);
+        fireChangeTaskEvent(event);
     }
 
     public int size() {
         return tasks.size();
     }
 
+    public int getTaskCount() {
+        return tasksById.size();
+    }
+
     @NotNull
     public ITask getTask(int index) {
         return tasks.get(index);
     }
 
+    public Iterable<ITask> tasks() {
+        return TaskIterator.tasksOf(this);
+    }
+
     public void setTask(int index, @NotNull ITask task) {
+        registerTasks(task);
         tasks.add(index, task);
-        fireChangeTaskEvent(task);
+        fireChangeTaskEvent(new TaskChangeEvent(task, null, -1, null, index, TaskChangeEvent.ALL));
+    }
+
+    /**
+     * Starts batch of changes. Aggregates of tasks which get sub tasks during the batch
+     * are updated when the batch is finished.
+     */
+    public void beginBatch() {
+        batchDepth++;
+    }
+
+    public void endBatch() {
+        if (batchDepth == 0)
+            throw new IllegalStateException("endBatch() is called without beginBatch()");
+
+        if (--batchDepth > 0)
+            return;
+
+        rebuildStaleAggregates();
+
+        TaskBatchEvent event = new TaskBatchEvent(batchAddedTasks, batchChangedTasks, batchDeletedTasks);
+        batchAddedTasks.clear();
+        batchChangedTasks.clear();
+        batchDeletedTasks.clear();
+
+        if (!event.isEmpty()) {
+            for (ITaskModelChangeListener listener : changeListeners)
+                listener.handleBatchEvent(event);
+        }
+    }
+
+    public ITask findTask(long id) {
+        return tasksById.get(id);
+    }
+
+    @NotNull
+    public TaskModelSnapshot snapshot() {
+        if (snapshot == null) {
+            List<TaskSnapshot> taskSnapshots = new ArrayList<TaskSnapshot>(tasks.size());
+            for (ITask task : tasks)
+                taskSnapshots.add(Task.snapshotOf(task));
+
+            snapshot = new TaskModelSnapshot(taskSnapshots);
+        }
+
+        return snapshot;
+    }
+
+    /**
+     * Enables checking of cached task aggregates after every mutation. It's expensive,
+     * since whole changed subtree is recalculated, so use it only in tests.
+     * Can be also enabled with <code>org.dubik.tasks.checkAggregates</code> system property.
+     *
+     * @param checkAggregates <code>true</code> to enable check
+     */
+    public void setCheckAggregates(boolean checkAggregates) {
+        this.checkAggregates = checkAggregates;
     }
 
     public void addChangeListener(ITaskModelChangeListener listener) {
         assert listener != null;
 
-        changeListeners.add(listener);
+        changeListeners.addIfAbsent(listener);
     }
 
     public void removeChangeListener(ITaskModelChangeListener listener) {
@@ -288,33 +400,191 @@ public class TaskModel implements ITaskModel {
         changeListeners.remove(listener);
     }
 
-    private void fireAddTaskEvent(ITask task) {
-        TaskChangeEvent event = new TaskChangeEvent(task);
+    public int getChangeListenerCount() {
+        return changeListeners.size();
+    }
+
+    private void fireAddTaskEvent(TaskChangeEvent event) {
+        snapshot = null;
+        if (batchDepth > 0) {
+            ITask task = event.getTask();
+            // deleted and added again means moved
+            if (batchDeletedTasks.remove(task))
+                batchChangedTasks.add(task);
+            else
+                batchAddedTasks.add(task);
+            return;
+        }
+
         for (ITaskModelChangeListener listener : changeListeners)
             listener.handleAddTaskEvent(event);
     }
 
-    private void firePreDeleteTaskEvent(ITask task) {
-        TaskChangeEvent event = new TaskChangeEvent(task);
+    private void firePreDeleteTaskEvent(TaskChangeEvent event) {
+        if (batchDepth > 0)
+            return;
+
         for (ITaskModelChangeListener listener : changeListeners)
             listener.handlePreDeleteTaskEvent(event);
     }
 
-    private void fireDeleteTaskEvent(ITask task) {
-        TaskChangeEvent event = new TaskChangeEvent(task);
+    private void fireDeleteTaskEvent(TaskChangeEvent event) {
+        snapshot = null;
+        if (batchDepth > 0) {
+            ITask task = event.getTask();
+            batchChangedTasks.remove(task);
+            if (!batchAddedTasks.remove(task))
+                batchDeletedTasks.add(task);
+            return;
+        }
+
         for (ITaskModelChangeListener listener : changeListeners)
             listener.handleDeleteTaskEvent(event);
     }
 
-    private void firePreChangeTaskEvent(ITask task) {
-        TaskChangeEvent event = new TaskChangeEvent(task);
+    private void firePreChangeTaskEvent(TaskChangeEvent event) {
+        if (batchDepth > 0)
+            return;
+
         for (ITaskModelChangeListener listener : changeListeners)
             listener.handlePreChangeTaskEvent(event);
     }
 
-    private void fireChangeTaskEvent(ITask task) {
-        TaskChangeEvent event = new TaskChangeEvent(task);
+    private void fireChangeTaskEvent(TaskChangeEvent event) {
+        snapshot = null;
+        if (batchDepth > 0) {
+            if (!batchAddedTasks.contains(event.getTask()))
+                batchChangedTasks.add(event.getTask());
+            return;
+        }
+
         for (ITaskModelChangeListener listener : changeListeners)
             listener.handleChangeTaskEvent(event);
     }
+
+    private TaskChangeEvent createAddEvent(ITask task) {
+        ITask parent = task.getParent();
+        return new TaskChangeEvent(task, null, -1, parent, eventIndexOf(parent, task), TaskChangeEvent.ALL);
+    }
+
+    private TaskChangeEvent createChangeEvent(ITask task, int changedProperties) {
+        ITask parent = task.getParent();
+        int index = eventIndexOf(parent, task);
+        return new TaskChangeEvent(task, parent, index, parent, index, changedProperties);
+    }
+
+    /**
+     * Returns index of a task for an event. Batch reports only tasks, looking up index
+     * of every task would make batches quadratic, so index isn't looked up during batch.
+     */
+    private int eventIndexOf(ITask parent, ITask task) {
+        return batchDepth > 0 ? -1 : indexOf(parent, task);
+    }
+
+    private int indexOf(ITask parent, ITask task) {
+        if (parent == null)
+            return tasks.indexOf(task);
+
+        return parent.indexOf(task);
+    }
+
+    /**
+     * Assigns identifier to a task and puts it to the index. Identifier is kept if it is
+     * positive and not used yet, otherwise new one is generated.
+     *
+     * @param task task to register
+     * @param id   preferred identifier
+     */
+    private void registerTask(Task task, long id) {
+        ITask registeredTask = tasksById.get(id);
+        if (id <= 0 || (registeredTask != null && registeredTask != task))
+            id = lastId + 1;
+
+        lastId = Math.max(lastId, id);
+        task.setId(id);
+        tasksById.put(id, task);
+    }
+
+    private void registerTasks(ITask task) {
+        for (TaskIterator it = TaskIterator.preOrder(task); it.hasNext();) {
+            ITask subTask = it.next();
+            if (subTask instanceof Task)
+                registerTask((Task) subTask, subTask.getId());
+        }
+    }
+
+    private void unregisterTasks(ITask task) {
+        for (TaskIterator it = TaskIterator.preOrder(task); it.hasNext();) {
+            ITask subTask = it.next();
+            tasksById.remove(subTask.getId());
+            batchStaleTasks.remove(subTask);
+        }
+    }
+
+    private void markStale(Task task) {
+        // parents of a stale task are already stale
+        while (task != null && batchStaleTasks.add(task))
+            task = task.getParent() instanceof Task ? (Task) task.getParent() : null;
+    }
+
+    /**
+     * Rebuilds aggregates of stale tasks, sub tasks go before their parents. Every stale
+     * task is rebuilt once, so it costs as much as the amount of their sub tasks.
+     */
+    private void rebuildStaleAggregates() {
+        if (batchStaleTasks.isEmpty())
+            return;
+
+        // stale tasks with their positions in the list of sub tasks, parent is below its sub tasks
+        List<Task> path = new ArrayList<Task>();
+        List<Integer> indexes = new ArrayList<Integer>();
+        List<Task> topTasks = new ArrayList<Task>();
+        for (Task task : batchStaleTasks) {
+            if (!(task.getParent() instanceof Task) || !batchStaleTasks.contains((Task) task.getParent()))
+                topTasks.add(task);
+        }
+
+        for (Task topTask : topTasks) {
+            path.add(topTask);
+            indexes.add(0);
+            while (!path.isEmpty()) {
+                int top = path.size() - 1;
+                Task task = path.get(top);
+                int index = indexes.get(top);
+                if (index == task.size()) {
+                    // parent of the top task isn't stale, e.g. task was moved to it during batch
+                    task.rebuildAggregates(top == 0);
+                    path.remove(top);
+                    indexes.remove(top);
+                    continue;
+                }
+
+                indexes.set(top, index + 1);
+                ITask subTask = task.get(index);
+                if (subTask instanceof Task && batchStaleTasks.contains((Task) subTask)) {
+                    path.add((Task) subTask);
+                    indexes.add(0);
+                }
+            }
+        }
+
+        batchStaleTasks.clear();
+        for (Task topTask : topTasks)
+            verifyAggregates(topTask);
+    }
+
+    /**
+     * Checks aggregates of the whole tree the task belongs to, if check is enabled.
+     * Tasks update aggregates of their parents themselves, stale tasks are checked
+     * when the batch is finished.
+     */
+    private void verifyAggregates(ITask task) {
+        if (!checkAggregates || !(task instanceof Task) || !batchStaleTasks.isEmpty())
+            return;
+
+        Task mutableTask = (Task) task;
+        while (mutableTask.getParent() instanceof Task)
+            mutableTask = (Task) mutableTask.getParent();
+        mutableTask.checkAggregates();
+    }
 }
\ No newline at end of file
@@ -35,6 +35,7 @@ import org.dubik.tasks.ui.tree.TaskTreeMouseAdapter;
 import org.dubik.tasks.ui.tree.dnd.DNDTree;
 import org.dubik.tasks.ui.widgets.ProgressTooltipUI;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import javax.swing.*;
 import javax.swing.plaf.ToolTipUI;
@@ -61,8 +62,15 @@ public class TasksUIManager {
 
     private static final String DEFAULT_ACTION_GROUP_PLACE = "TasksActionGroupPlace";
 
+    // amount of tasks from which trees switch to large model mode
+    private static final int LARGE_MODEL_THRESHOLD = Integer.getInteger("org.dubik.tasks.largeModelThreshold", 50000);
+
     private static final ToolTipUI progressTooltipUI = new ProgressTooltipUI();
 
+    private static final int NOT_HIGHLIGHTED = TaskHighlightingType.values().length;
+    // icons of tasks by priority and highlighting type, NOT_HIGHLIGHTED column is for not highlighted tasks
+    private static final Icon[][] taskIcons = new Icon[TaskPriority.values().length][NOT_HIGHLIGHTED + 1];
+
     public static Icon getIcon(@NotNull String path) {
         Icon icon = iconMap.get(path);
         if (icon == null) {
@@ -75,34 +83,65 @@ public class TasksUIManager {
 
     @NotNull
     public static Icon createIcon(@NotNull ITask task) {
-        Icon taskIcon;
-        if (task.isHighlighted()) {
-            LayeredIcon layeredIcon = new LayeredIcon(2);
-            layeredIcon.setIcon(findIcon(task.getHighlightingType()), 0, 0, 0);
-            layeredIcon.setIcon(findIcon(task), 1, 17, 0);
-            taskIcon = layeredIcon;
-        } else {
-            taskIcon = findIcon(task);
+        return createIcon(task, getSettings());
+    }
+
+    /**
+     * Returns icon of the task, which shows its priority and highlighting.
+     *
+     * @param task     task
+     * @param settings plugin settings, they tell whether priority of sub tasks is shown
+     * @return shared icon, it must not be changed
+     */
+    @NotNull
+    public static Icon createIcon(@NotNull ITask task, @NotNull TaskSettings settings) {
+        return getTaskIcon(findPriority(task, settings), task.isHighlighted() ? task.getHighlightingType() : null);
+    }
+
+    /**
+     * Returns icon of priority with a star of highlighting type on the left. Icons are made once
+     * for every combination and then shared.
+     *
+     * @param priority         task priority
+     * @param highlightingType highlighting type, <code>null</code> if task isn't highlighted
+     * @return shared icon, it must not be changed
+     */
+    @NotNull
+    public static Icon getTaskIcon(@NotNull TaskPriority priority, @Nullable TaskHighlightingType highlightingType) {
+        int column = highlightingType != null ? highlightingType.ordinal() : NOT_HIGHLIGHTED;
+        Icon icon = taskIcons[priority.ordinal()][column];
+        if (icon == null) {
+            if (highlightingType != null) {
+                LayeredIcon layeredIcon = new LayeredIcon(2);
+                layeredIcon.setIcon(findIcon(highlightingType), 0, 0, 0);
+                layeredIcon.setIcon(findIcon(priority), 1, 17, 0);
+                icon = layeredIcon;
+            } else {
+                icon = findIcon(priority);
+            }
+
+            taskIcons[priority.ordinal()][column] = icon;
         }
 
-        return taskIcon;
+        return icon;
     }
 
     @NotNull
     public static Icon findIcon(@NotNull ITask task) {
-        TasksApplicationComponent appCmp =
-                ApplicationManager.getApplication().getComponent(TasksApplicationComponent.class);
-        TaskSettings settings = appCmp.getSettings();
+        return findIcon(findPriority(task, getSettings()));
+    }
 
-        TaskPriority priority;
+    private static TaskPriority findPriority(ITask task, TaskSettings settings) {
+        if (settings.isPropagatePriority())
+            return task.getHighestPriority(settings.isPriorityPropagatedOneLevelOnly());
 
-        if (settings.isPropagatePriority()) {
-            priority = findHighestPriorityRecursively(task, settings.isPriorityPropagatedOneLevelOnly());
-        } else {
-            priority = task.getPriority();
-        }
+        return task.getPriority();
+    }
 
-        return findIcon(priority);
+    private static TaskSettings getSettings() {
+        TasksApplicationComponent appCmp =
+                ApplicationManager.getApplication().getComponent(TasksApplicationComponent.class);
+        return appCmp.getSettings();
     }
 
     public static Icon findIcon(@NotNull TaskPriority priority) {
@@ -132,21 +171,6 @@ public class TasksUIManager {
         }
     }
 
-    private static TaskPriority findHighestPriorityRecursively(ITask task, boolean onlyFirstLevel) {
-        TaskPriority taskPriority = task.getPriority();
-
-        for (int i = 0; i < task.size(); i++) {
-            ITask subTask = task.get(i);
-
-            if (!onlyFirstLevel)
-                taskPriority = taskPriority.max(findHighestPriorityRecursively(subTask, false));
-            else
-                taskPriority = taskPriority.max(subTask.getPriority());
-        }
-
-        return taskPriority;
-    }
-
     @NotNull
     public static JTree createTaskTree(@NotNull TreeModel model, @NotNull TaskController taskController,
                                        @NotNull JPopupMenu popupMenu) {
@@ -157,6 +181,7 @@ public class TasksUIManager {
         tasksTree.setRootVisible(false);
         tasksTree.setModel(model);
         tasksTree.setTaskController(taskController);
+        tasksTree.setLargeModelThreshold(LARGE_MODEL_THRESHOLD);
         tasksTree.addMouseListener(new TaskTreeMouseAdapter(popupMenu));
 
         ToolTipManager.sharedInstance().registerComponent(tasksTree);
@@ -107,9 +107,32 @@ abstract public class BaseTaskAction extends AnAction {
         return getTreeController(project);
     }
 
+    /**
+     * Returns tree controller if tasks are already loaded. Must be used in <code>update()</code>,
+     * so that updating of actions doesn't load tasks.
+     *
+     * @param e action event
+     * @return tree controller or <code>null</code> if tasks are not loaded yet
+     */
+    protected TreeController getLoadedTreeController(AnActionEvent e) {
+        TasksProjectComponent tasksProject = getLoadedProjectComponent(getProject(e));
+        return tasksProject != null ? tasksProject.getTreeController() : null;
+    }
+
+    private TasksProjectComponent getLoadedProjectComponent(Project project) {
+        if (project != null) {
+            TasksProjectComponent tasksProject = project.getComponent(TasksProjectComponent.class);
+            if (tasksProject != null && tasksProject.isInitialized())
+                return tasksProject;
+        }
+
+        return null;
+    }
+
     public void update(AnActionEvent e) {
         super.update(e);
-        TaskController controller = getController(getProject(e));
+        TasksProjectComponent tasksProject = getLoadedProjectComponent(getProject(e));
+        TaskController controller = tasksProject != null ? tasksProject.getTaskController() : null;
         if (controller != null) {
             ITask[] selectedTasks = controller.getSelectedTasks();
 
@@ -18,6 +18,7 @@ package org.dubik.tasks.ui.actions;
 import com.intellij.openapi.actionSystem.AnActionEvent;
 import com.intellij.openapi.ui.DialogWrapper;
 import org.dubik.tasks.model.ITask;
+import org.dubik.tasks.model.TaskIterator;
 import org.dubik.tasks.ui.clipboard.TextTransfer;
 import org.dubik.tasks.ui.forms.ExportToFileForm;
 import org.dubik.tasks.ui.tree.TaskTreeModel;
@@ -81,24 +82,19 @@ public class ExportToTextFileAction extends BaseTaskAction {
         PrintWriter out = new PrintWriter(os);
 
         ITask root = (ITask) model.getRoot();
-        for (int i = 0; i < root.size(); i++) {
-            ITask task = root.get(i);
-            writeTasksInternally(task, 0, out);
+        TaskIterator it = TaskIterator.preOrder(root);
+        // root itself isn't written, its sub tasks have no indent
+        it.next();
+        while (it.hasNext()) {
+            ITask task = it.next();
+            out.print(makeIndent(it.getDepth() - 1));
+            out.println(task.getTitle());
         }
 
         out.flush();
         out.close();
     }
 
-    private void writeTasksInternally(ITask task, int depthLevel, PrintWriter out) {
-        out.print(makeIndent(depthLevel));
-        out.println(task.getTitle());
-
-        for (int i = 0; i < task.size(); i++) {
-            writeTasksInternally(task.get(i), depthLevel + 1, out);
-        }
-    }
-
     private String makeIndent(int depthLevel) {
         StringBuffer buf = new StringBuffer();
         for (int i = 0; i < depthLevel; i++) {
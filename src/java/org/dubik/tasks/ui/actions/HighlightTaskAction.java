@@ -33,14 +33,19 @@ public class HighlightTaskAction extends BaseTaskAction {
         if (controller != null) {
             ITask[] selectedTasks = controller.getSelectedTasks();
             if (canHighlightOrUnhighlight(selectedTasks, controller)) {
-                if (areAllHighlighted(selectedTasks)) {
-                    for (ITask task : selectedTasks) {
-                        controller.unhighlightTask(task);
-                    }
-                } else {
-                    for (ITask task : selectedTasks) {
-                        controller.highlightTask(task);
+                controller.beginBatch();
+                try {
+                    if (areAllHighlighted(selectedTasks)) {
+                        for (ITask task : selectedTasks) {
+                            controller.unhighlightTask(task);
+                        }
+                    } else {
+                        for (ITask task : selectedTasks) {
+                            controller.highlightTask(task);
+                        }
                     }
+                } finally {
+                    controller.endBatch();
                 }
             }
         }
@@ -29,8 +29,13 @@ public class MarkAsNotCompleted extends BaseTaskAction {
         TaskController controller = getController(e);
         if (controller != null) {
             ITask[] selectedTasks = controller.getSelectedTasks();
-            for (ITask selectedTask : selectedTasks) {
-                controller.uncompleteTask(selectedTask);
+            controller.beginBatch();
+            try {
+                for (ITask selectedTask : selectedTasks) {
+                    controller.uncompleteTask(selectedTask);
+                }
+            } finally {
+                controller.endBatch();
             }
         }
     }
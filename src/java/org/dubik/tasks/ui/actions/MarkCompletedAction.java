@@ -31,9 +31,14 @@ public class MarkCompletedAction extends BaseTaskAction {
         TaskController controller = getController(e);
         if (controller != null) {
             ITask[] selectedTasks = controller.getSelectedTasks();
-            for (ITask selectedTask : selectedTasks) {
-                updateActualTime(e, selectedTask);
-                controller.completeTask(selectedTask);
+            controller.beginBatch();
+            try {
+                for (ITask selectedTask : selectedTasks) {
+                    updateActualTime(e, selectedTask);
+                    controller.completeTask(selectedTask);
+                }
+            } finally {
+                controller.endBatch();
             }
         }
     }
@@ -45,8 +45,13 @@ public class RemoveTaskAction extends BaseTaskAction {
     }
 
     private void deleteTasks(ITask[] selectedTasks, TaskController controller) {
-        for (ITask selectedTask : selectedTasks) {
-            controller.deleteTask(selectedTask);
+        controller.beginBatch();
+        try {
+            for (ITask selectedTask : selectedTasks) {
+                controller.deleteTask(selectedTask);
+            }
+        } finally {
+            controller.endBatch();
         }
     }
 
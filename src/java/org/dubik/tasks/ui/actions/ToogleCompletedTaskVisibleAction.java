@@ -32,7 +32,7 @@ public class ToogleCompletedTaskVisibleAction extends BaseTaskAction {
 
     public void update(AnActionEvent e) {
         super.update(e);
-        TreeController treeController = getTreeController(e);
+        TreeController treeController = getLoadedTreeController(e);
         if (treeController != null) {
             if (treeController.isHideCompletedTasks()) {
                 Icon check = TasksUIManager.getIcon(TasksUIManager.ICON_CHECK);
@@ -32,9 +32,14 @@ public abstract class BaseHighlightTaskAction extends BaseTaskAction {
         if (controller != null) {
             ITask[] selectedTasks = controller.getSelectedTasks();
             if (canHighlightOrUnhighlight(selectedTasks, controller)) {
-                for (ITask task : selectedTasks) {
-                    controller.setTaskHighlightingType(task, getHightlightingType());
-                    controller.highlightTask(task);
+                controller.beginBatch();
+                try {
+                    for (ITask task : selectedTasks) {
+                        controller.setTaskHighlightingType(task, getHightlightingType());
+                        controller.highlightTask(task);
+                    }
+                } finally {
+                    controller.endBatch();
                 }
             }
         }
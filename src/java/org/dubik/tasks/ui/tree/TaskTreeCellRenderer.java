@@ -27,6 +27,8 @@ import org.dubik.tasks.ui.TasksUIManager;
 
 import javax.swing.*;
 import java.awt.*;
+import java.util.Map;
+import java.util.WeakHashMap;
 
 /**
  * Renders items in task tree.
@@ -41,6 +43,11 @@ public class TaskTreeCellRenderer extends ColoredTreeCellRenderer {
 
     private TaskSettings settings;
 
+    // details made for tasks, rows of unchanged tasks are painted without building them again
+    private Map<ITask, RenderedTask> renderedTasks = new WeakHashMap<ITask, RenderedTask>();
+    // task which is being rendered now
+    private RenderedTask current;
+
     public TaskTreeCellRenderer() {
         TasksApplicationComponent application =
                 ApplicationManager.getApplication().getComponent(TasksApplicationComponent.class);
@@ -50,10 +57,13 @@ public class TaskTreeCellRenderer extends ColoredTreeCellRenderer {
     public void customizeCellRenderer(JTree tree, Object value,
                                       boolean selected, boolean expanded,
                                       boolean leaf, int row, boolean hasFocus) {
+        current = null;
         if (!(value instanceof ITask))
             return;
 
         ITask task = (ITask) value;
+        RenderedTask rendered = getRenderedTask(task);
+        current = rendered;
 
         SimpleTextAttributes titleAttr = SimpleTextAttributes.REGULAR_ATTRIBUTES;
         SimpleTextAttributes restAttr = SimpleTextAttributes.GRAY_ATTRIBUTES;
@@ -65,34 +75,74 @@ public class TaskTreeCellRenderer extends ColoredTreeCellRenderer {
         }
 
         if (value instanceof ITaskGroup) {
-            ITaskGroup taskGroup = (ITaskGroup) value;
-            try {
-                TaskPriority groupPriority = TaskPriority.parse(taskGroup.getTitle());
-                setIcon(TasksUIManager.findIcon(groupPriority));
-            } catch (IllegalArgumentException e) {
-                setIcon(TasksUIManager.getIcon(TasksUIManager.ICON_TASK));
-            }
-
+            setIcon(rendered.icon);
             append(task.getTitle(), groupTitleAttr);
             append(" ", titleAttr);
-            String details = makeDetailsForGroup(taskGroup);
-            append(details, restAttr);
+            append(rendered.details, restAttr);
         } else {
-            setIcon(TasksUIManager.createIcon(task));
+            setIcon(TasksUIManager.createIcon(task, settings));
             append(task.getTitle(), titleAttr);
-            String details = makeDetailsForTask(task);
-            if (details.length() != 0) {
+            if (rendered.details.length() != 0) {
                 append(" ", restAttr);
-                append(details, restAttr);
+                append(rendered.details, restAttr);
             }
         }
 
-        String tooltip = makeTooltipFromTask(task);
-        setToolTipText(tooltip);
-
         setIconTextGap(3);
     }
 
+    /**
+     * Returns size of the task's row. Tree asks for it every time the row is laid out, it's measured
+     * again only if the task has changed or the font is different. Cached size is returned,
+     * tree only copies it to bounds of the row.
+     *
+     * @return preferred size, it must not be changed
+     */
+    public Dimension getPreferredSize() {
+        if (current == null)
+            return super.getPreferredSize();
+
+        Font font = getFont();
+        if (current.preferredSize == null || font == null || !font.equals(current.font)) {
+            current.preferredSize = super.getPreferredSize();
+            current.font = font;
+        }
+
+        return current.preferredSize;
+    }
+
+    /**
+     * Returns details of the task, they are made again only if the task or settings
+     * they depend on have changed since they were made last time. Tooltips are made
+     * by the tree, only for the hovered task.
+     */
+    private RenderedTask getRenderedTask(ITask task) {
+        boolean actualTimeEnabled = settings.isEnableActualTime();
+        RenderedTask rendered = renderedTasks.get(task);
+        if (rendered != null && rendered.modificationStamp == task.getModificationStamp() &&
+                rendered.actualTimeEnabled == actualTimeEnabled)
+            return rendered;
+
+        rendered = new RenderedTask();
+        rendered.modificationStamp = task.getModificationStamp();
+        rendered.actualTimeEnabled = actualTimeEnabled;
+        if (task instanceof ITaskGroup) {
+            ITaskGroup taskGroup = (ITaskGroup) task;
+            try {
+                TaskPriority groupPriority = TaskPriority.parse(taskGroup.getTitle());
+                rendered.icon = TasksUIManager.findIcon(groupPriority);
+            } catch (IllegalArgumentException e) {
+                rendered.icon = TasksUIManager.getIcon(TasksUIManager.ICON_TASK);
+            }
+            rendered.details = makeDetailsForGroup(taskGroup);
+        } else {
+            rendered.details = makeDetailsForTask(task);
+        }
+        renderedTasks.put(task, rendered);
+
+        return rendered;
+    }
+
     private String makeDetailsForTask(ITask task) {
         int totalTasks = task.size();
         long estimated = task.getEstimatedTime();
@@ -157,12 +207,7 @@ public class TaskTreeCellRenderer extends ColoredTreeCellRenderer {
 
     private String makeDetailsForGroup(ITaskGroup taskGroup) {
         int totalTasks = taskGroup.size();
-        int completedTasks = 0;
-        for (int i = 0; i < totalTasks; i++) {
-            ITask task = taskGroup.get(i);
-            if (task.isCompleted())
-                completedTasks++;
-        }
+        int completedTasks = taskGroup.getCompletedSubTasksCount();
 
         StringBuffer details = new StringBuffer();
         details.append("(");
@@ -199,35 +244,12 @@ public class TaskTreeCellRenderer extends ColoredTreeCellRenderer {
         return timeStr.toString();
     }
 
-    private String makeTooltipFromTask(ITask task) {
-        StringBuffer tooltip = new StringBuffer();
-        int subTasks = task.size();
-        int complete = completed(task);
-        int incomplete = subTasks - complete;
-        tooltip.append("<html><b>");
-        tooltip.append(task.getTitle());
-        tooltip.append("</b>");
-        if (task.size() != 0) {
-            tooltip.append("<br>");
-            tooltip.append("Total: ");
-            tooltip.append(task.size());
-            tooltip.append(" (Complete: ");
-            tooltip.append(complete);
-            tooltip.append(", Incomplete: ");
-            tooltip.append(incomplete);
-            tooltip.append(")");
-        }
-        tooltip.append("</html>");
-        return tooltip.toString();
-    }
-
-    private int completed(ITask task) {
-        int completed = 0;
-        for (int i = 0; i < task.size(); i++) {
-            if (task.get(i).isCompleted())
-                completed++;
-        }
-
-        return completed;
+    private static class RenderedTask {
+        private long modificationStamp;
+        private boolean actualTimeEnabled;
+        private Icon icon;
+        private String details;
+        private Font font;
+        private Dimension preferredSize;
     }
 }
\ No newline at end of file
@@ -21,9 +21,7 @@ import org.dubik.tasks.ui.filters.PriorityFilter;
 
 import javax.swing.event.TreeModelEvent;
 import javax.swing.tree.TreePath;
-import java.util.Collections;
-import java.util.List;
-import java.util.Vector;
+import java.util.*;
 
 /**
  * Task tree model. Feeds tree with the data.
@@ -31,10 +29,20 @@ import java.util.Vector;
  * @author Sergiy Dubovik
  */
 public class TaskTreeModel extends AbstractTreeModel implements ITaskModelChangeListener {
-    private ITaskGroup root;
+    private TaskGroup root;
     private ITaskModel taskModel;
     private ITaskFilter taskFilter;
-    private TreeRefresher refresher;
+    private TreeRefreshScheduler refreshScheduler;
+    private boolean groupedByPriority;
+    private Map<TaskPriority, TaskGroup> priorityGroups = new HashMap<TaskPriority, TaskGroup>();
+
+    // position of a task in the tree before it was changed or deleted
+    private ITask pendingTask;
+    private TreePath pendingParentPath;
+    private int pendingIndex = -1;
+
+    // children accepted by the filter, built when parent is asked for the first time
+    private Map<Object, FilteredChildren> filteredChildren = new HashMap<Object, FilteredChildren>();
 
     public TaskTreeModel(ITaskModel taskModel) {
         this.taskModel = taskModel;
@@ -46,7 +54,36 @@ public class TaskTreeModel extends AbstractTreeModel implements ITaskModelChange
     }
 
     public void setRefresher(TreeRefresher refresher) {
-        this.refresher = refresher;
+        refreshScheduler = refresher != null ? new TreeRefreshScheduler(refresher) : null;
+    }
+
+    /**
+     * Stops listening to the task model. Must be called when tree is not used anymore,
+     * since task model is shared between projects and outlives them.
+     */
+    public void dispose() {
+        taskModel.removeChangeListener(this);
+    }
+
+    /**
+     * Returns amount of all tasks in the task model, including hidden ones.
+     *
+     * @return amount of tasks
+     */
+    public int getTaskCount() {
+        return taskModel.getTaskCount();
+    }
+
+    public TreeRefreshScheduler getRefreshScheduler() {
+        return refreshScheduler;
+    }
+
+    /**
+     * Performs scheduled refreshes of the tree immediately.
+     */
+    public void flushRefresh() {
+        if (refreshScheduler != null)
+            refreshScheduler.flush();
     }
 
     public Object getRoot() {
@@ -59,16 +96,9 @@ public class TaskTreeModel extends AbstractTreeModel implements ITaskModelChange
             ITask task = (ITask) parent;
 
             if (taskFilter != null) {
-                int taskIndex;
-
-                for (taskIndex = 0; taskIndex < task.size(); taskIndex++) {
-                    if (taskFilter.accept(task.get(taskIndex))) {
-                        if (index == 0)
-                            return task.get(taskIndex);
-
-                        index--;
-                    }
-                }
+                FilteredChildren children = getFilteredChildren(task);
+                if (index >= 0 && index < children.size())
+                    return children.get(index);
             } else {
                 return task.get(index);
             }
@@ -81,13 +111,10 @@ public class TaskTreeModel extends AbstractTreeModel implements ITaskModelChange
         int size = 0;
         if (parent instanceof ITask) {
             ITask task = (ITask) parent;
-            size = task.size();
-            if (taskFilter != null) {
-                for (int i = 0; i < task.size(); i++) {
-                    if (!taskFilter.accept(task.get(i)))
-                        size--;
-                }
-            }
+            if (taskFilter != null)
+                size = getFilteredChildren(task).size();
+            else
+                size = task.size();
         }
 
         return size;
@@ -101,85 +128,339 @@ public class TaskTreeModel extends AbstractTreeModel implements ITaskModelChange
     }
 
     public int getIndexOfChild(Object parent, Object child) {
-        for (int i = 0; i < getChildCount(parent); i++) {
-            if (getChild(parent, i) == child)
-                return i;
-        }
+        if (!(parent instanceof ITask) || !(child instanceof ITask))
+            return -1;
+
+        ITask task = (ITask) parent;
+        if (taskFilter != null)
+            return getFilteredChildren(task).indexOf(child);
 
-        return -1;
+        return task.indexOf((ITask) child);
     }
 
     public void setTaskFilter(ITaskFilter taskFilter) {
         this.taskFilter = taskFilter;
+        filteredChildren.clear();
         updateTree();
     }
 
+    private FilteredChildren getFilteredChildren(ITask parent) {
+        FilteredChildren children = filteredChildren.get(parent);
+        if (children == null) {
+            children = new FilteredChildren(parent, taskFilter);
+            filteredChildren.put(parent, children);
+        }
+
+        return children;
+    }
+
+    /**
+     * Drops filtered children of the task and all its parents, since filter can
+     * accept a parent depending on its sub tasks. Top level nodes are dropped as well.
+     *
+     * @param task changed task or its parent, can be <code>null</code>
+     */
+    private void invalidateFilteredChildren(ITask task) {
+        if (filteredChildren.isEmpty())
+            return;
+
+        for (ITask node = task; node != null; node = node.getParent())
+            filteredChildren.remove(node);
+
+        filteredChildren.remove(root);
+        if (groupedByPriority) {
+            for (int i = 0; i < root.size(); i++)
+                filteredChildren.remove(root.get(i));
+        }
+    }
+
     private void updateTree() {
-        if (refresher != null)
-            refresher.refresh();
+        if (refreshScheduler != null)
+            refreshScheduler.scheduleRefresh();
         else
             fireTreeStructureChanged(new TreeModelEvent(this, new Object[]{root}));
 
     }
 
+    private void updateTree(TreePath path) {
+        if (refreshScheduler != null)
+            refreshScheduler.scheduleRefresh(path.getLastPathComponent());
+        else
+            fireTreeStructureChanged(new TreeModelEvent(this, path));
+    }
+
+    /**
+     * Checks if events for separate rows can be fired. If filter is set, change of a task
+     * can also hide or show its parents, so whole tree has to be updated. The same if
+     * refresh is scheduled, since tree doesn't reflect the model until it is performed.
+     *
+     * @return <code>true</code> if tree can be updated row by row
+     */
+    private boolean canUpdateRows() {
+        return taskFilter == null && (refreshScheduler == null || !refreshScheduler.isRefreshPending());
+    }
+
     public void handleAddTaskEvent(TaskChangeEvent event) {
-        updateTree();
+        root.handleAddTaskEvent(event);
+        invalidateFilteredChildren(event.getTask());
+        if (!canUpdateRows()) {
+            updateTree();
+            return;
+        }
+
+        ITask task = event.getTask();
+        TreePath parentPath = getParentPath(task);
+        fireTaskInserted(parentPath, task);
+        fireParentsChanged(parentPath);
     }
 
     public void handlePreDeleteTaskEvent(TaskChangeEvent event) {
+        storePosition(event.getTask());
     }
 
     public void handleDeleteTaskEvent(TaskChangeEvent event) {
-        updateTree();
+        root.handleDeleteTaskEvent(event);
+        invalidateFilteredChildren(event.getOldParent());
+        filteredChildren.remove(event.getTask());
+        if (!canUpdateRows() || event.getTask() != pendingTask) {
+            clearPosition();
+            updateTree();
+            return;
+        }
+
+        fireTaskRemoved(pendingParentPath, pendingIndex, pendingTask);
+        fireParentsChanged(pendingParentPath);
+        clearPosition();
     }
 
     public void handlePreChangeTaskEvent(TaskChangeEvent event) {
+        storePosition(event.getTask());
     }
 
     public void handleChangeTaskEvent(TaskChangeEvent event) {
-        updateTree();
+        ITask task = event.getTask();
+        root.handleChangeTaskEvent(event);
+        invalidateFilteredChildren(event.getOldParent());
+        invalidateFilteredChildren(task);
+        if (!canUpdateRows() || task != pendingTask) {
+            clearPosition();
+            updateTree();
+            return;
+        }
+
+        TreePath parentPath = getParentPath(task);
+        int index = getIndexOf(parentPath, task);
+
+        if (parentPath != null && parentPath.equals(pendingParentPath)) {
+            if (index == pendingIndex) {
+                if (index != -1)
+                    fireTreeNodesChanged(new TreeModelEvent(this, parentPath, new int[]{index}, new Object[]{task}));
+            } else {
+                // reordered within the same parent, refresh only the parent to keep expanded sub tasks
+                updateTree(parentPath);
+            }
+            fireParentsChanged(parentPath);
+        } else {
+            fireTaskRemoved(pendingParentPath, pendingIndex, task);
+            fireParentsChanged(pendingParentPath);
+            fireTaskInserted(parentPath, task);
+            fireParentsChanged(parentPath);
+        }
+
+        clearPosition();
     }
 
-    public Object[] findPathToObject(Object root, Object task) {
+    private void storePosition(ITask task) {
+        pendingTask = task;
+        pendingParentPath = canUpdateRows() ? getParentPath(task) : null;
+        pendingIndex = getIndexOf(pendingParentPath, task);
+    }
+
+    private void clearPosition() {
+        pendingTask = null;
+        pendingParentPath = null;
+        pendingIndex = -1;
+    }
+
+    private void fireTaskInserted(TreePath parentPath, ITask task) {
+        int index = getIndexOf(parentPath, task);
+        if (index != -1)
+            fireTreeNodesInserted(new TreeModelEvent(this, parentPath, new int[]{index}, new Object[]{task}));
+    }
+
+    private void fireTaskRemoved(TreePath parentPath, int index, ITask task) {
+        if (parentPath != null && index != -1)
+            fireTreeNodesRemoved(new TreeModelEvent(this, parentPath, new int[]{index}, new Object[]{task}));
+    }
+
+    /**
+     * Fires change event for every node of specified path, except the root. They show
+     * summary of their sub tasks, which has to be repainted.
+     *
+     * @param path path to a changed task's parent
+     */
+    private void fireParentsChanged(TreePath path) {
+        if (path == null)
+            return;
+
+        for (TreePath nodePath = path; nodePath.getParentPath() != null; nodePath = nodePath.getParentPath()) {
+            TreePath parentPath = nodePath.getParentPath();
+            Object node = nodePath.getLastPathComponent();
+            int index = getIndexOfChild(parentPath.getLastPathComponent(), node);
+            if (index != -1)
+                fireTreeNodesChanged(new TreeModelEvent(this, parentPath, new int[]{index}, new Object[]{node}));
+        }
+    }
+
+    /**
+     * Builds path to a parent node of specified task using parent links.
+     *
+     * @param task task
+     * @return path to task's parent node or <code>null</code> if task isn't shown in the tree
+     */
+    private TreePath getParentPath(ITask task) {
         List<Object> path = new Vector<Object>();
-        findPathToObject(root, task, path);
+        ITask topTask = task;
+        for (ITask parent = task.getParent(); parent != null; parent = parent.getParent()) {
+            if (!isShown(parent))
+                return null;
+
+            path.add(parent);
+            topTask = parent;
+        }
+
+        TaskGroup group = findGroup(topTask);
+        if (group == null)
+            return null;
+
+        if (group != root)
+            path.add(group);
+
+        path.add(root);
         Collections.reverse(path);
-        Object[] oPath = new Object[path.size()];
-        oPath = path.toArray(oPath);
-        return oPath;
+        return new TreePath(path.toArray());
+    }
+
+    /**
+     * Finds group which shows specified top level task.
+     *
+     * @param topTask top level task
+     * @return group or <code>null</code> if task isn't shown in the tree
+     */
+    private TaskGroup findGroup(ITask topTask) {
+        TaskGroup group = groupedByPriority ? priorityGroups.get(topTask.getPriority()) : root;
+        if (group == null || !group.contains(topTask) || !isShown(topTask))
+            return null;
+
+        return group;
+    }
+
+    private boolean isShown(ITask task) {
+        return taskFilter == null || taskFilter.accept(task);
     }
 
-    private boolean findPathToObject(Object parent, Object task, List<Object> path) {
-        if (parent == task) {
-            return true;
+    private int getIndexOf(TreePath parentPath, ITask task) {
+        if (parentPath == null)
+            return -1;
+
+        return getIndexOfChild(parentPath.getLastPathComponent(), task);
+    }
+
+    public void handleBatchEvent(TaskBatchEvent event) {
+        root.handleBatchEvent(event);
+        filteredChildren.clear();
+        updateTree();
+    }
+
+    /**
+     * Finds path from specified node to the parent of the object using parent links.
+     *
+     * @param root node where path starts
+     * @param task task or task group
+     * @return path excluding the object itself, empty if object isn't shown under the node
+     */
+    public Object[] findPathToObject(Object root, Object task) {
+        TreePath path = null;
+        if (task instanceof ITaskGroup) {
+            if (task != this.root && this.root.contains((ITask) task))
+                path = new TreePath(this.root);
+        } else if (task instanceof ITask) {
+            path = getParentPath((ITask) task);
         }
 
-        for (int i = 0; i < getChildCount(parent); i++) {
-            if (findPathToObject(getChild(parent, i), task, path)) {
-                path.add(parent);
-                return true;
+        if (path == null)
+            return new Object[0];
+
+        Object[] nodes = path.getPath();
+        for (int i = 0; i < nodes.length; i++) {
+            if (nodes[i] == root) {
+                Object[] oPath = new Object[nodes.length - i];
+                System.arraycopy(nodes, i, oPath, 0, oPath.length);
+                return oPath;
             }
         }
 
-        return false;
+        return new Object[0];
     }
 
     public void groupByPriority(boolean group) {
-        ITaskGroup newRoot = new TaskGroup("All Tasks");
+        TaskGroup newRoot = new TaskGroup("All Tasks");
+        priorityGroups.clear();
 
         if (group) {
             for (TaskPriority priority : TaskPriority.values()) {
-                ITaskGroup taskGroup = new TaskGroup(priority.toString());
+                TaskGroup taskGroup = new TaskGroup(priority.toString());
                 taskGroup.setTaskModel(taskModel);
                 taskGroup.setTaskFilter(new PriorityFilter(priority));
 
                 newRoot.add(taskGroup);
+                priorityGroups.put(priority, taskGroup);
             }
         } else {
             newRoot.setTaskModel(taskModel);
         }
 
         root = newRoot;
+        groupedByPriority = group;
+        filteredChildren.clear();
         updateTree();
     }
+
+    /**
+     * Children of a node accepted by the filter, with index of every child.
+     */
+    private static class FilteredChildren {
+        private ITask[] children;
+        private Map<Object, Integer> positions;
+
+        public FilteredChildren(ITask parent, ITaskFilter filter) {
+            List<ITask> accepted = new ArrayList<ITask>();
+            for (int i = 0; i < parent.size(); i++) {
+                ITask child = parent.get(i);
+                if (filter.accept(child))
+                    accepted.add(child);
+            }
+
+            children = accepted.toArray(new ITask[accepted.size()]);
+        }
+
+        public int size() {
+            return children.length;
+        }
+
+        public ITask get(int index) {
+            return children[index];
+        }
+
+        public int indexOf(Object child) {
+            if (positions == null) {
+                positions = new HashMap<Object, Integer>();
+                for (int i = 0; i < children.length; i++)
+                    positions.put(children[i], i);
+            }
+
+            Integer index = positions.get(child);
+            return index != null ? index : -1;
+        }
+    }
 }
\ No newline at end of file
@@ -20,6 +20,8 @@ import org.dubik.tasks.ui.filters.HideCompletedFilter;
 import javax.swing.*;
 import javax.swing.event.TreeModelEvent;
 import javax.swing.tree.TreePath;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * @author Sergiy Dubovik
@@ -29,10 +31,12 @@ public class TreeController {
     private JTree tree;
     private boolean groupedByPriority;
     private boolean hideCompletedTasks;
+    private TreeExpander expander;
 
     public TreeController(TaskTreeModel treeModel, JTree tree) {
         this.treeModel = treeModel;
         this.tree = tree;
+        expander = new TreeExpander(tree);
         groupedByPriority = false;
         hideCompletedTasks = false;
     }
@@ -40,6 +44,7 @@ public class TreeController {
     public void groupByPriority() {
         groupedByPriority = !groupedByPriority;
         treeModel.groupByPriority(groupedByPriority);
+        treeModel.flushRefresh();
 
         if (groupedByPriority) {
             expandWholeTreeOneLevel(treeModel.getRoot());
@@ -50,6 +55,10 @@ public class TreeController {
         return treeModel;
     }
 
+    public TreeExpander getExpander() {
+        return expander;
+    }
+
     public boolean isGroupByPriority() {
         return groupedByPriority;
     }
@@ -68,14 +77,17 @@ public class TreeController {
 
     private void expandWholeTreeOneLevel(Object root) {
         TreePath rootPath = new TreePath(root);
+        List<TreePath> paths = new ArrayList<TreePath>();
         for (int i = 0; i < treeModel.getChildCount(root); i++) {
             Object child = treeModel.getChild(root, i);
-            TreePath pathToChild = rootPath.pathByAddingChild(child);
-            tree.expandPath(pathToChild);
+            paths.add(rootPath.pathByAddingChild(child));
         }
+
+        expander.expand(paths);
     }
 
     public void expandToObject(Object obj) {
+        treeModel.flushRefresh();
         final Object root = treeModel.getRoot();
         if (obj == root)
             tree.expandPath(new TreePath(root));
@@ -87,15 +99,16 @@ public class TreeController {
     }
 
     public void changedTree() {
-        changedTreeRecursively(new TreePath(treeModel.getRoot()));
-    }
-
-    private void changedTreeRecursively(TreePath path) {
-        treeModel.fireTreeNodesChanged(new TreeModelEvent(this, path));
-
-        Object root = path.getLastPathComponent();
-        for (int i = 0; i < treeModel.getChildCount(root); i++) {
-            changedTreeRecursively(path.pathByAddingChild(treeModel.getChild(root, i)));
+        // paths to visit, last goes first, children are pushed in reverse to keep the order
+        List<TreePath> paths = new ArrayList<TreePath>();
+        paths.add(new TreePath(treeModel.getRoot()));
+        while (!paths.isEmpty()) {
+            TreePath path = paths.remove(paths.size() - 1);
+            treeModel.fireTreeNodesChanged(new TreeModelEvent(this, path));
+
+            Object node = path.getLastPathComponent();
+            for (int i = treeModel.getChildCount(node) - 1; i >= 0; i--)
+                paths.add(path.pathByAddingChild(treeModel.getChild(node, i)));
         }
     }
 
@@ -104,8 +117,28 @@ public class TreeController {
     }
 
     public void selectObject(Object task) {
-        TreePath path = pathToObject(task).pathByAddingChild(task);
-        tree.setSelectionPath(path);
+        treeModel.flushRefresh();
+        TreePath path = findPath(task);
+        if (path != null)
+            tree.setSelectionPath(path);
+    }
+
+    /**
+     * Finds path to the object, including the object itself.
+     *
+     * @param obj object in the tree
+     * @return path to the object or <code>null</code> if object isn't in the tree
+     */
+    public TreePath findPath(Object obj) {
+        final Object root = treeModel.getRoot();
+        if (obj == root)
+            return new TreePath(root);
+
+        Object[] path = treeModel.findPathToObject(root, obj);
+        if (path.length == 0)
+            return null;
+
+        return new TreePath(path).pathByAddingChild(obj);
     }
 
     protected TreePath pathToObject(Object task) {
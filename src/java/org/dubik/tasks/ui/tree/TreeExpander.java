@@ -0,0 +1,285 @@
+/*
+ * Copyright 2006 Sergiy Dubovik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dubik.tasks.ui.tree;
+
+import javax.swing.*;
+import javax.swing.event.TreeExpansionEvent;
+import javax.swing.event.TreeExpansionListener;
+import javax.swing.event.TreeModelEvent;
+import javax.swing.event.TreeModelListener;
+import javax.swing.tree.TreeModel;
+import javax.swing.tree.TreePath;
+import java.awt.*;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * Expands paths of a tree in time slices, so expanding thousands of nodes doesn't freeze the EDT.
+ * Every slice first expands pending paths which are shown in the visible part of the tree, then
+ * goes on with the others in the order they were requested, until slice time is used. First slice
+ * runs right away, so small expansions are done before {@link #expand} returns, next slices run
+ * on next EDT cycles, so events and painting are handled in between.
+ * <p/>
+ * While many paths are pending, completed percentage is put to {@link #PROGRESS_PROPERTY} client
+ * property of the tree, it's removed when expansion is done.
+ *
+ * @author Sergiy Dubovik
+ */
+public class TreeExpander {
+    /**
+     * Client property of the tree with completed percentage of running expansion.
+     */
+    public static final String PROGRESS_PROPERTY = "TreeExpander.progress";
+
+    // time of one slice in milliseconds, the rest of EDT cycle is left for events and painting
+    static final int SLICE_TIME = Integer.getInteger("org.dubik.tasks.expansionSlice", 20);
+    // less pending paths are expanded without showing progress
+    static final int PROGRESS_THRESHOLD = 1000;
+
+    private JTree tree;
+    private TreeModelListener modelListener = new ModelListener();
+    private int sliceTime = SLICE_TIME;
+    private boolean scheduled;
+
+    // paths to expand, parents go before their children
+    private LinkedHashSet<TreePath> pending = new LinkedHashSet<TreePath>();
+    // paths of the current expansion, counted for the progress
+    private int total;
+    private int expanded;
+
+    public TreeExpander(JTree tree) {
+        this.tree = tree;
+
+        tree.addTreeExpansionListener(new TreeExpansionListener() {
+            public void treeExpanded(TreeExpansionEvent event) {
+            }
+
+            public void treeCollapsed(TreeExpansionEvent event) {
+                // collapsed by user, its sub nodes must not be expanded again
+                cancel(event.getPath());
+            }
+        });
+        tree.addPropertyChangeListener(JTree.TREE_MODEL_PROPERTY, new PropertyChangeListener() {
+            public void propertyChange(PropertyChangeEvent evt) {
+                cancel();
+                if (evt.getOldValue() != null)
+                    ((TreeModel) evt.getOldValue()).removeTreeModelListener(modelListener);
+                if (evt.getNewValue() != null)
+                    ((TreeModel) evt.getNewValue()).addTreeModelListener(modelListener);
+            }
+        });
+        if (tree.getModel() != null)
+            tree.getModel().addTreeModelListener(modelListener);
+    }
+
+    /**
+     * Sets time of one slice, at least one path is expanded in every slice.
+     *
+     * @param sliceTime time in milliseconds
+     */
+    public void setSliceTime(int sliceTime) {
+        this.sliceTime = sliceTime;
+    }
+
+    public int getSliceTime() {
+        return sliceTime;
+    }
+
+    /**
+     * Expands paths during one slice and schedules the rest. Paths which are already pending
+     * keep their place.
+     *
+     * @param paths paths to expand, parents must go before their children
+     */
+    public void expand(List<TreePath> paths) {
+        if (paths.isEmpty())
+            return;
+
+        if (pending.isEmpty()) {
+            total = 0;
+            expanded = 0;
+        }
+
+        for (TreePath path : paths) {
+            if (pending.add(path))
+                total++;
+        }
+
+        expandSlice();
+    }
+
+    /**
+     * Drops pending expansion of the path and of all paths under it.
+     *
+     * @param path path in the tree
+     * @return dropped paths, parents go before their children
+     */
+    public List<TreePath> cancel(TreePath path) {
+        List<TreePath> cancelled = new ArrayList<TreePath>();
+        for (Iterator<TreePath> it = pending.iterator(); it.hasNext();) {
+            TreePath pendingPath = it.next();
+            if (path.isDescendant(pendingPath)) {
+                it.remove();
+                cancelled.add(pendingPath);
+            }
+        }
+
+        total -= cancelled.size();
+        if (pending.isEmpty())
+            finish();
+        else
+            updateProgress();
+
+        return cancelled;
+    }
+
+    /**
+     * Drops all pending expansions.
+     */
+    public void cancel() {
+        pending.clear();
+        finish();
+    }
+
+    /**
+     * Checks whether there are paths waiting to be expanded.
+     *
+     * @return <code>true</code> if expansion is running
+     */
+    public boolean isExpanding() {
+        return !pending.isEmpty();
+    }
+
+    /**
+     * Expands all pending paths immediately.
+     */
+    public void flush() {
+        while (!pending.isEmpty())
+            expandNext();
+
+        finish();
+    }
+
+    private void schedule() {
+        if (scheduled)
+            return;
+
+        scheduled = true;
+        SwingUtilities.invokeLater(new Runnable() {
+            public void run() {
+                scheduled = false;
+                if (!pending.isEmpty())
+                    expandSlice();
+            }
+        });
+    }
+
+    private void expandSlice() {
+        long end = System.currentTimeMillis() + sliceTime;
+        expandVisible(end);
+        if (!pending.isEmpty()) {
+            do {
+                expandNext();
+            } while (!pending.isEmpty() && System.currentTimeMillis() < end);
+        }
+
+        if (pending.isEmpty()) {
+            finish();
+        } else {
+            updateProgress();
+            schedule();
+        }
+    }
+
+    /**
+     * Expands pending paths which are shown in the visible part of the tree. Children of expanded
+     * path appear right below it, so the ones which are still visible are expanded in the same pass.
+     */
+    private void expandVisible(long end) {
+        Rectangle visibleRect = tree.getVisibleRect();
+        int first = tree.getClosestRowForLocation(visibleRect.x, visibleRect.y);
+        int last = tree.getClosestRowForLocation(visibleRect.x, visibleRect.y + visibleRect.height);
+        if (first < 0)
+            return;
+
+        for (int row = first; row <= last && row < tree.getRowCount(); row++) {
+            if (System.currentTimeMillis() >= end)
+                return;
+
+            TreePath path = tree.getPathForRow(row);
+            if (path != null && pending.remove(path)) {
+                tree.expandPath(path);
+                expanded++;
+            }
+        }
+    }
+
+    private void expandNext() {
+        Iterator<TreePath> it = pending.iterator();
+        TreePath path = it.next();
+        it.remove();
+
+        tree.expandPath(path);
+        expanded++;
+    }
+
+    private void finish() {
+        total = 0;
+        expanded = 0;
+        tree.putClientProperty(PROGRESS_PROPERTY, null);
+    }
+
+    private void updateProgress() {
+        Integer progress = null;
+        if (total >= PROGRESS_THRESHOLD)
+            progress = (int) ((long) expanded * 100 / total);
+
+        tree.putClientProperty(PROGRESS_PROPERTY, progress);
+    }
+
+    /**
+     * Drops pending paths of nodes which are removed from the model, otherwise JTree would
+     * remember expansion of nodes which don't exist anymore.
+     */
+    private class ModelListener implements TreeModelListener {
+        public void treeNodesChanged(TreeModelEvent e) {
+        }
+
+        public void treeNodesInserted(TreeModelEvent e) {
+        }
+
+        public void treeNodesRemoved(TreeModelEvent e) {
+            Object[] children = e.getChildren();
+            if (children == null) {
+                cancel(e.getTreePath());
+                return;
+            }
+
+            for (Object child : children)
+                cancel(e.getTreePath().pathByAddingChild(child));
+        }
+
+        public void treeStructureChanged(TreeModelEvent e) {
+            // JTree forgets expanded nodes under the changed one
+            if (e.getTreePath() != null)
+                cancel(e.getTreePath());
+        }
+    }
+}
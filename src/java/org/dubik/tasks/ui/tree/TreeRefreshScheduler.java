@@ -0,0 +1,189 @@
+/*
+ * Copyright 2006 Sergiy Dubovik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dubik.tasks.ui.tree;
+
+import org.dubik.tasks.model.ITask;
+
+import javax.swing.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Collects refresh requests and performs them at once, on the next EDT cycle
+ * or after specified delay. If whole tree has to be refreshed, refresh requests
+ * for subtrees are dropped, the same for subtrees of other requested subtrees.
+ *
+ * @author Sergiy Dubovik
+ */
+public class TreeRefreshScheduler implements ActionListener {
+    private TreeRefresher refresher;
+    private Timer timer;
+
+    private Set<Object> dirtyNodes = new LinkedHashSet<Object>();
+    private boolean wholeTreeDirty;
+    private boolean scheduled;
+    private boolean refreshing;
+
+    private int requestedRefreshes;
+    private int performedRefreshes;
+
+    public TreeRefreshScheduler(TreeRefresher refresher) {
+        this.refresher = refresher;
+        timer = new Timer(0, this);
+        timer.setRepeats(false);
+    }
+
+    /**
+     * Sets time during which refresh requests are collected.
+     *
+     * @param delay delay in milliseconds, 0 means refresh on the next EDT cycle
+     */
+    public void setDelay(int delay) {
+        timer.setInitialDelay(delay);
+    }
+
+    public int getDelay() {
+        return timer.getInitialDelay();
+    }
+
+    /**
+     * Schedules refresh of the whole tree.
+     */
+    public void scheduleRefresh() {
+        requestedRefreshes++;
+        wholeTreeDirty = true;
+        schedule();
+    }
+
+    /**
+     * Schedules refresh of the subtree.
+     *
+     * @param node root of subtree
+     */
+    public void scheduleRefresh(Object node) {
+        requestedRefreshes++;
+        dirtyNodes.add(node);
+        schedule();
+    }
+
+    private void schedule() {
+        if (scheduled)
+            return;
+
+        scheduled = true;
+        if (timer.getInitialDelay() == 0) {
+            SwingUtilities.invokeLater(new Runnable() {
+                public void run() {
+                    flush();
+                }
+            });
+        } else {
+            timer.restart();
+        }
+    }
+
+    /**
+     * Checks whether there are refreshes waiting to be performed.
+     *
+     * @return <code>true</code> if refresh is scheduled
+     */
+    public boolean isRefreshPending() {
+        return scheduled;
+    }
+
+    public void actionPerformed(ActionEvent e) {
+        flush();
+    }
+
+    /**
+     * Performs pending refreshes immediately. Must be called before anything what
+     * relies on actual tree state, e.g. selection or expansion of a node.
+     */
+    public void flush() {
+        if (!scheduled || refreshing)
+            return;
+
+        scheduled = false;
+        timer.stop();
+
+        boolean wholeTree = wholeTreeDirty;
+        Object[] nodes = dirtyNodes.toArray();
+        wholeTreeDirty = false;
+        dirtyNodes.clear();
+
+        refreshing = true;
+        try {
+            if (wholeTree) {
+                refresher.refresh();
+                performedRefreshes++;
+            } else {
+                Set<Object> nodeSet = new LinkedHashSet<Object>();
+                for (Object node : nodes)
+                    nodeSet.add(node);
+
+                for (Object node : nodes) {
+                    if (!hasDirtyParent(node, nodeSet)) {
+                        refresher.refresh(node);
+                        performedRefreshes++;
+                    }
+                }
+            }
+        } finally {
+            refreshing = false;
+        }
+    }
+
+    private boolean hasDirtyParent(Object node, Set<Object> nodes) {
+        if (!(node instanceof ITask))
+            return false;
+
+        for (ITask parent = ((ITask) node).getParent(); parent != null; parent = parent.getParent()) {
+            if (nodes.contains(parent))
+                return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns amount of refresh requests.
+     *
+     * @return amount of requested refreshes
+     */
+    public int getRequestedRefreshCount() {
+        return requestedRefreshes;
+    }
+
+    /**
+     * Returns amount of refreshes which were performed.
+     *
+     * @return amount of performed refreshes
+     */
+    public int getPerformedRefreshCount() {
+        return performedRefreshes;
+    }
+
+    /**
+     * Returns amount of refresh requests which were merged with other ones.
+     *
+     * @return amount of merged refreshes
+     */
+    public int getMergedRefreshCount() {
+        return requestedRefreshes - performedRefreshes;
+    }
+}
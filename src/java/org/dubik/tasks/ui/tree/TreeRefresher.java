@@ -15,48 +15,97 @@
  */
 package org.dubik.tasks.ui.tree;
 
+import org.dubik.tasks.model.ITask;
+import org.dubik.tasks.model.ITaskGroup;
+
 import javax.swing.*;
 import javax.swing.tree.TreeModel;
 import javax.swing.tree.TreePath;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.*;
 
+/**
+ * Refreshes structure of a tree and keeps expanded nodes expanded. Expanded tasks are
+ * remembered by their ids, so they are found again even if tree nodes were replaced.
+ * Nodes are expanded again by {@link TreeExpander}, so refresh of a huge subtree doesn't
+ * block the EDT, and next refresh takes over expansions which weren't done yet.
+ */
 public class TreeRefresher {
     private JTree tree;
     private TreeController treeController;
-    private Set<Object> expandedNodes = new HashSet<Object>();
+    private TreeExpander expander;
+
+    // sorted ids of expanded tasks
+    private long[] expandedIds = new long[0];
+    private Set<Object> expandedGroups = new HashSet<Object>();
 
     public TreeRefresher(JTree tree, TreeController treeController) {
         this.tree = tree;
         this.treeController = treeController;
+        expander = treeController.getExpander();
     }
 
-    private void storeExpansions() {
-        expandedNodes.clear();
-        TreeModel treeModel = tree.getModel();
-        Object root = treeModel.getRoot();
-        for (int i = 0; i < treeModel.getChildCount(root); i++) {
-            Object child = treeModel.getChild(root, i);
-            storeExpansions(new TreePath(root).pathByAddingChild(child));
+    private void storeExpansions(TreePath path) {
+        List<Long> ids = new ArrayList<Long>();
+        expandedGroups.clear();
+
+        Enumeration<TreePath> expandedPaths = tree.getExpandedDescendants(path);
+        if (expandedPaths != null) {
+            while (expandedPaths.hasMoreElements())
+                storeExpansion(expandedPaths.nextElement().getLastPathComponent(), ids);
         }
+
+        // expansions which weren't done yet are scheduled again after refresh
+        for (TreePath pendingPath : expander.cancel(path))
+            storeExpansion(pendingPath.getLastPathComponent(), ids);
+
+        expandedIds = new long[ids.size()];
+        for (int i = 0; i < expandedIds.length; i++)
+            expandedIds[i] = ids.get(i);
+        Arrays.sort(expandedIds);
     }
 
-    private void storeExpansions(TreePath path) {
-        if (tree.isExpanded(path)) {
-            TreeModel treeModel = tree.getModel();
-            Object obj = path.getLastPathComponent();
-            expandedNodes.add(obj);
-            for (int i = 0; i < treeModel.getChildCount(obj); i++) {
+    private void storeExpansion(Object obj, List<Long> ids) {
+        if (obj instanceof ITaskGroup || !(obj instanceof ITask))
+            expandedGroups.add(obj);
+        else
+            ids.add(((ITask) obj).getId());
+    }
+
+    private boolean wasExpanded(Object obj) {
+        if (obj instanceof ITaskGroup || !(obj instanceof ITask))
+            return expandedGroups.contains(obj);
+
+        return Arrays.binarySearch(expandedIds, ((ITask) obj).getId()) >= 0;
+    }
+
+    /**
+     * Expands nodes which were expanded before refresh, going from the top, so
+     * only nodes which become visible are visited.
+     *
+     * @param path refreshed path
+     */
+    private void restoreExpansions(TreePath path) {
+        if (!wasExpanded(path.getLastPathComponent()))
+            return;
+
+        // paths to expand in tree order and paths to visit, last goes first
+        List<TreePath> expandedPaths = new ArrayList<TreePath>();
+        List<TreePath> paths = new ArrayList<TreePath>();
+        paths.add(path);
+        TreeModel treeModel = tree.getModel();
+        while (!paths.isEmpty()) {
+            TreePath expandedPath = paths.remove(paths.size() - 1);
+            expandedPaths.add(expandedPath);
+
+            Object obj = expandedPath.getLastPathComponent();
+            for (int i = treeModel.getChildCount(obj) - 1; i >= 0; i--) {
                 Object child = treeModel.getChild(obj, i);
-                storeExpansions(path.pathByAddingChild(child));
+                if (wasExpanded(child))
+                    paths.add(expandedPath.pathByAddingChild(child));
             }
         }
-    }
 
-    private void restoreExpansions() {
-        for (Object object : expandedNodes) {
-            treeController.expandToObject(object);
-        }
+        expander.expand(expandedPaths);
     }
 
     public void refresh() {
@@ -64,10 +113,12 @@ public class TreeRefresher {
     }
 
     public void refresh(Object object) {
-        TreePath path = treeController.pathToObject(object);
-        expandedNodes.clear();
+        TreePath path = treeController.findPath(object);
+        if (path == null)
+            path = new TreePath(tree.getModel().getRoot());
+
         storeExpansions(path);
         treeController.refreshTree(path);
-        restoreExpansions();
+        restoreExpansions(path);
     }
 }
\ No newline at end of file
@@ -17,22 +17,51 @@ package org.dubik.tasks.ui.tree.dnd;
 
 import org.dubik.tasks.TaskController;
 import org.dubik.tasks.model.ITask;
+import org.dubik.tasks.ui.tree.TaskTreeModel;
+import org.dubik.tasks.ui.tree.TreeExpander;
 import org.dubik.tasks.ui.widgets.ProgressTooltip;
+import org.dubik.tasks.ui.widgets.impl.ProgressImageCreator;
 import org.jetbrains.annotations.NotNull;
 
 import javax.swing.*;
+import javax.swing.event.TreeModelEvent;
+import javax.swing.event.TreeModelListener;
+import javax.swing.tree.TreeModel;
 import javax.swing.tree.TreePath;
 import java.awt.*;
+import java.awt.event.MouseEvent;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
 
 /**
  * @author Sergiy Dubovik
  */
 public class DNDTree extends JTree {
+    private static final int MIN_ROW_HEIGHT = 16;
+
     private Insets autoscrollInsets = new Insets(20, 20, 20, 20); // insets
     // private DefaultTreeTaskTransferHandler transferHandler;
 
+    // tooltip of the last hovered task, Swing asks for the text on every mouse move
+    private ITask tooltipTask;
+    private long tooltipStamp;
+    private String tooltipText;
+
+    // with more tasks rows get fixed height and only visible rows are measured
+    private int largeModelThreshold = Integer.MAX_VALUE;
+    private boolean largeModelCheckScheduled;
+    // row height set by look and feel, restored when large model mode is off
+    private int defaultRowHeight;
+    // created lazily, since JTree sets the model before fields are initialized
+    private TreeModelListener taskCountListener;
+
     public DNDTree() {
         setAutoscrolls(true);
+        addPropertyChangeListener(TreeExpander.PROGRESS_PROPERTY, new PropertyChangeListener() {
+            public void propertyChange(PropertyChangeEvent evt) {
+                repaintExpansionProgress();
+            }
+        });
         // transferHandler = new DefaultTreeTaskTransferHandler(this, DnDConstants.ACTION_COPY_OR_MOVE);
     }
 
@@ -56,34 +85,176 @@ public class DNDTree extends JTree {
         // transferHandler.setTaskController(taskController);
     }
 
+    /**
+     * Sets amount of tasks starting from which the tree works in large model mode:
+     * rows have fixed height, so the tree doesn't measure and keep every expanded row.
+     * Mode is switched automatically when tasks are added or removed.
+     *
+     * @param largeModelThreshold amount of tasks in the task model
+     */
+    public void setLargeModelThreshold(int largeModelThreshold) {
+        this.largeModelThreshold = largeModelThreshold;
+        updateLargeModel();
+    }
+
+    public void setModel(TreeModel newModel) {
+        TreeModel oldModel = getModel();
+        if (oldModel != null && taskCountListener != null)
+            oldModel.removeTreeModelListener(taskCountListener);
+
+        super.setModel(newModel);
+
+        if (newModel != null) {
+            if (taskCountListener == null)
+                taskCountListener = new TaskCountListener();
+            newModel.addTreeModelListener(taskCountListener);
+        }
+        scheduleLargeModelCheck();
+    }
+
+    /**
+     * Checks amount of tasks after the current event is handled, so the layout isn't
+     * rebuilt while the tree is handling a change of its model.
+     */
+    private void scheduleLargeModelCheck() {
+        if (largeModelCheckScheduled)
+            return;
+
+        largeModelCheckScheduled = true;
+        SwingUtilities.invokeLater(new Runnable() {
+            public void run() {
+                largeModelCheckScheduled = false;
+                updateLargeModel();
+            }
+        });
+    }
+
+    private void updateLargeModel() {
+        TreeModel model = getModel();
+        boolean large = model instanceof TaskTreeModel &&
+                ((TaskTreeModel) model).getTaskCount() >= largeModelThreshold;
+        if (large == isLargeModel())
+            return;
+
+        if (large) {
+            defaultRowHeight = getRowHeight();
+            setRowHeight(measureRowHeight());
+            setLargeModel(true);
+        } else {
+            setLargeModel(false);
+            setRowHeight(defaultRowHeight);
+        }
+    }
+
+    /**
+     * Measures row of the root, it has an icon and a bold title, like the other rows.
+     */
+    private int measureRowHeight() {
+        Component row = getCellRenderer().getTreeCellRendererComponent(this, getModel().getRoot(),
+                false, false, false, 0, false);
+        return Math.max(row.getPreferredSize().height, MIN_ROW_HEIGHT);
+    }
+
+    protected void paintComponent(Graphics g) {
+        super.paintComponent(g);
+
+        // progress of long expansion is shown on top of the visible part of the tree
+        Integer progress = (Integer) getClientProperty(TreeExpander.PROGRESS_PROPERTY);
+        if (progress != null) {
+            Rectangle visibleRect = getVisibleRect();
+            g.drawImage(ProgressImageCreator.getImage(progress), visibleRect.x, visibleRect.y,
+                    visibleRect.width, ProgressImageCreator.HEIGHT, null);
+        }
+    }
+
+    private void repaintExpansionProgress() {
+        Rectangle visibleRect = getVisibleRect();
+        repaint(visibleRect.x, visibleRect.y, visibleRect.width, ProgressImageCreator.HEIGHT);
+    }
+
     public JToolTip createToolTip() {
         Point pos = getMousePosition();
-        JToolTip tooltip = super.createToolTip();
+        JToolTip tooltip = null;
 
         if (pos != null) {
-            TreePath treePath = getPathForLocation(pos.x, pos.y);
-            if (treePath != null) {
-                Object lastComponent = treePath.getLastPathComponent();
-                if (lastComponent != null) {
-                    ITask task = (ITask) lastComponent;
-                    if (task.size() != 0) {
-                        tooltip = new ProgressTooltip((float) completed(task) / (float) task.size());
-                    }
-                }
-            }
+            ITask task = getTaskAt(pos.x, pos.y);
+            if (task != null && task.size() != 0)
+                tooltip = new ProgressTooltip((float) task.getCompletedSubTasksCount() / (float) task.size());
         }
 
+        if (tooltip == null)
+            tooltip = super.createToolTip();
+
         tooltip.setComponent(this);
         return tooltip;
     }
 
-    private int completed(@NotNull ITask task) {
-        int completed = 0;
-        for (int i = 0; i < task.size(); i++) {
-            if (task.get(i).isCompleted())
-                completed++;
+    /**
+     * Returns tooltip of the task under the mouse. Text is made only when a task is hovered,
+     * not when rows are painted, and is kept while the same task stays unchanged.
+     *
+     * @param event mouse event
+     * @return tooltip text or <code>null</code> if there is no task under the mouse
+     */
+    public String getToolTipText(MouseEvent event) {
+        ITask task = getTaskAt(event.getX(), event.getY());
+        if (task == null)
+            return null;
+
+        if (task != tooltipTask || task.getModificationStamp() != tooltipStamp) {
+            tooltipTask = task;
+            tooltipStamp = task.getModificationStamp();
+            tooltipText = makeTooltip(task);
+        }
+
+        return tooltipText;
+    }
+
+    private ITask getTaskAt(int x, int y) {
+        TreePath treePath = getPathForLocation(x, y);
+        if (treePath == null)
+            return null;
+
+        Object lastComponent = treePath.getLastPathComponent();
+        return lastComponent instanceof ITask ? (ITask) lastComponent : null;
+    }
+
+    static private String makeTooltip(ITask task) {
+        StringBuffer tooltip = new StringBuffer();
+        int subTasks = task.size();
+        int complete = task.getCompletedSubTasksCount();
+        int incomplete = subTasks - complete;
+        tooltip.append("<html><b>");
+        tooltip.append(task.getTitle());
+        tooltip.append("</b>");
+        if (subTasks != 0) {
+            tooltip.append("<br>");
+            tooltip.append("Total: ");
+            tooltip.append(subTasks);
+            tooltip.append(" (Complete: ");
+            tooltip.append(complete);
+            tooltip.append(", Incomplete: ");
+            tooltip.append(incomplete);
+            tooltip.append(")");
+        }
+        tooltip.append("</html>");
+        return tooltip.toString();
+    }
+
+    private class TaskCountListener implements TreeModelListener {
+        public void treeNodesChanged(TreeModelEvent e) {
         }
 
-        return completed;
+        public void treeNodesInserted(TreeModelEvent e) {
+            scheduleLargeModelCheck();
+        }
+
+        public void treeNodesRemoved(TreeModelEvent e) {
+            scheduleLargeModelCheck();
+        }
+
+        public void treeStructureChanged(TreeModelEvent e) {
+            scheduleLargeModelCheck();
+        }
     }
 }
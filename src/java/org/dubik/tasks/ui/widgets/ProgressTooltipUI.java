@@ -15,6 +15,8 @@
  */
 package org.dubik.tasks.ui.widgets;
 
+import org.dubik.tasks.ui.widgets.impl.ProgressImageCreator;
+
 import javax.swing.*;
 import javax.swing.plaf.metal.MetalToolTipUI;
 import java.awt.*;
@@ -33,20 +35,11 @@ public class ProgressTooltipUI extends MetalToolTipUI {
 
         if (c instanceof ProgressTooltip) {
             ProgressTooltip tooltip = (ProgressTooltip) c;
-            tooltip.getPercentage();
-
             Dimension d = getPreferredSize(c);
 
-
-            int middlePoint = (int) ((d.getWidth() - 2) * tooltip.getPercentage());
-
-            g.setColor(new Color(0x00B000));
-            g.fillRect(4, (int) d.getHeight() - 6, middlePoint, 3);
-
-            g.setColor(new Color(0xB00000));
-            if (middlePoint < 4)
-                middlePoint = 4;
-            g.fillRect(middlePoint, (int) d.getHeight() - 6, (int) d.getWidth() - middlePoint - 4, 3);
+            int percentage = (int) Math.round(tooltip.getPercentage() * 100);
+            g.drawImage(ProgressImageCreator.getImage(percentage), 4, d.height - 6, d.width - 8,
+                    ProgressImageCreator.HEIGHT, null);
         }
     }
 
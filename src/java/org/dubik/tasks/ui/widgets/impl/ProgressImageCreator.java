@@ -15,9 +15,45 @@
  */
 package org.dubik.tasks.ui.widgets.impl;
 
+import java.awt.*;
+import java.awt.image.BufferedImage;
+
 /**
+ * Makes images of progress bars, one per percentage. Image is made the first time
+ * it's needed and then reused by every tooltip, which shows the same percentage.
+ *
  * @author Sergiy Dubovik
  */
 public class ProgressImageCreator {
+    public static final int WIDTH = 100;
+    public static final int HEIGHT = 3;
+
+    private static final Color COMPLETED_COLOR = new Color(0x00B000);
+    private static final Color INCOMPLETE_COLOR = new Color(0xB00000);
+
+    private static final Image[] images = new Image[WIDTH + 1];
+
+    /**
+     * Returns progress bar, completed part is green and the rest is red. Image is
+     * {@link #WIDTH} pixels wide, so every pixel is one percent, it can be scaled to any width.
+     *
+     * @param percentage completed percentage, from 0 to 100
+     * @return progress bar image
+     */
+    public static Image getImage(int percentage) {
+        percentage = Math.max(0, Math.min(WIDTH, percentage));
+        if (images[percentage] == null) {
+            BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+            Graphics g = image.getGraphics();
+            g.setColor(COMPLETED_COLOR);
+            g.fillRect(0, 0, percentage, HEIGHT);
+            g.setColor(INCOMPLETE_COLOR);
+            g.fillRect(percentage, 0, WIDTH - percentage, HEIGHT);
+            g.dispose();
+
+            images[percentage] = image;
+        }
 
+        return images[percentage];
+    }
 }
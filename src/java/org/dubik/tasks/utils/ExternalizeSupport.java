@@ -25,7 +25,10 @@ import org.jdom.Element;
 public class ExternalizeSupport {
     @SuppressWarnings({"SameParameterValue"})
     static public boolean getSafelyBoolean(Element el, String attrName, boolean defaultValue) {
-        String attrStr = el.getAttributeValue(attrName);
+        return getSafelyBoolean(el.getAttributeValue(attrName), defaultValue);
+    }
+
+    static public boolean getSafelyBoolean(String attrStr, boolean defaultValue) {
         try {
             return Boolean.parseBoolean(attrStr);
         } catch (Exception e) {
@@ -34,7 +37,10 @@ public class ExternalizeSupport {
     }
 
     static public long getSafelyLong(Element el, String attrName, long defaultValue) {
-        String attrStr = el.getAttributeValue(attrName);
+        return getSafelyLong(el.getAttributeValue(attrName), defaultValue);
+    }
+
+    static public long getSafelyLong(String attrStr, long defaultValue) {
         try {
             return Long.parseLong(attrStr);
         } catch (Exception e) {
@@ -44,7 +50,10 @@ public class ExternalizeSupport {
 
     @SuppressWarnings({"SameParameterValue"})
     static public TaskPriority getSafelyTaskPriority(Element el, String attrName, TaskPriority defaultValue) {
-        String attrStr = el.getAttributeValue(attrName);
+        return getSafelyTaskPriority(el.getAttributeValue(attrName), defaultValue);
+    }
+
+    static public TaskPriority getSafelyTaskPriority(String attrStr, TaskPriority defaultValue) {
         try {
             return TaskPriority.valueOf(attrStr);
         } catch (Exception e) {
@@ -54,7 +63,10 @@ public class ExternalizeSupport {
 
     static public TaskHighlightingType getSafelyHighlightingType(Element el, String attrName,
                                                                  TaskHighlightingType defaultValue) {
-        String attrStr = el.getAttributeValue(attrName);
+        return getSafelyHighlightingType(el.getAttributeValue(attrName), defaultValue);
+    }
+
+    static public TaskHighlightingType getSafelyHighlightingType(String attrStr, TaskHighlightingType defaultValue) {
         try {
             return TaskHighlightingType.valueOf(attrStr);
         } catch (Exception e) {
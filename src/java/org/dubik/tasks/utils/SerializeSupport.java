@@ -20,54 +20,101 @@ import com.intellij.openapi.util.WriteExternalException;
 import org.dubik.tasks.TaskSettings;
 import org.dubik.tasks.model.ITask;
 import org.dubik.tasks.model.ITaskModel;
-import org.dubik.tasks.model.TaskHighlightingType;
-import org.dubik.tasks.model.TaskPriority;
+import org.dubik.tasks.model.TaskIterator;
+import org.dubik.tasks.model.TaskModelSnapshot;
+import org.dubik.tasks.model.impl.TaskModel;
 import org.jdom.Element;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
  * @author Sergiy Dubovik
  */
 public class SerializeSupport {
-    private static final String TASKS = "tasks";
-    private static final String TASK = "task";
-    private static final String TASK_PRIORITY = "priority";
-    private static final String TASK_COMPLETED = "completed";
-    private static final String TASK_ESTIMATED = "estimated";
-    private static final String TASK_CREATED = "created";
-    private static final String TASK_HIGHLIGHTED = "highlighted";
-    private static final String TASK_HIGHLIGHTING_TYPE = "highlightingtype";
-    private static final String TASK_TITLE = "title";
-    private static final String TASK_ACTUAL = "actual";
+    static final String ENCODING = "UTF-8";
+    static final String APPLICATION = "application";
+    static final String COMPONENT = "component";
+    static final String COMPONENT_NAME = "name";
+    static final String STORAGE_COMPONENT_NAME = "TaskStorage";
+
+    static final String TASKS = "tasks";
+    static final String TASK = "task";
+    static final String TASK_ID = "id";
+    static final String TASK_PRIORITY = "priority";
+    static final String TASK_COMPLETED = "completed";
+    static final String TASK_ESTIMATED = "estimated";
+    static final String TASK_CREATED = "created";
+    static final String TASK_HIGHLIGHTED = "highlighted";
+    static final String TASK_HIGHLIGHTING_TYPE = "highlightingtype";
+    static final String TASK_TITLE = "title";
+    static final String TASK_ACTUAL = "actual";
+
+    /**
+     * Checks whether element contains at least one task.
+     *
+     * @param element root of the plugin data
+     * @return <code>true</code> if there are tasks to read
+     */
+    static public boolean hasTasks(Element element) {
+        Element tasksRoot = element.getChild(TASKS);
+        return tasksRoot != null && !tasksRoot.getChildren().isEmpty();
+    }
 
     static public void writeDummy(Element element) {
         Element dummyRoot = new Element(TASKS);
         element.addContent(dummyRoot);
     }
 
+    /**
+     * Copies tasks from another element as they are, without reading them.
+     *
+     * @param source  root of the plugin data with tasks
+     * @param element root of the plugin data to write
+     */
+    static public void copyTasks(Element source, Element element) {
+        Element tasksRoot = source.getChild(TASKS);
+        if (tasksRoot == null)
+            writeDummy(element);
+        else
+            element.addContent((Element) tasksRoot.clone());
+    }
+
+    /**
+     * Writes tasks and settings to the element. The element belongs to IDEA, which writes the
+     * whole component file itself, so tasks can't be streamed here like in {@link #writeTasks}.
+     * It's used only if task files can't be written.
+     *
+     * @param taskModel    task model
+     * @param taskSettings plugin settings
+     * @param element      root of the plugin data
+     * @throws WriteExternalException if tasks can't be written
+     */
     static public void writeExternal(ITaskModel taskModel, TaskSettings taskSettings, Element element)
             throws WriteExternalException {
         Element tasksRoot = new Element(TASKS);
         element.addContent(tasksRoot);
-        for (int i = 0; i < taskModel.size(); i++) {
-            ITask task = taskModel.getTask(i);
-            writeTasksRecursively(tasksRoot, task);
+
+        // element of a task at depth n is at n + 1, tasksRoot is the parent of top level tasks
+        List<Element> path = new ArrayList<Element>();
+        path.add(tasksRoot);
+        for (TaskIterator it = TaskIterator.preOrder(taskModel); it.hasNext();) {
+            ITask task = it.next();
+            int depth = it.getDepth();
+            while (path.size() > depth + 1)
+                path.remove(path.size() - 1);
+            path.add(writeTask(path.get(depth), task));
         }
 
         taskSettings.writeExternal(element);
     }
 
-    static private void writeTasksRecursively(Element taskRoot, ITask task) {
-        Element newTaskRoot = writeTask(taskRoot, task);
-        for (int i = 0; i < task.size(); i++) {
-            ITask subTask = task.get(i);
-            writeTasksRecursively(newTaskRoot, subTask);
-        }
-    }
-
     static private Element writeTask(Element taskRoot, ITask task) {
         Element xTask = new Element(TASK);
+        xTask.setAttribute(TASK_ID, Long.toString(task.getId()));
         xTask.setAttribute(TASK_PRIORITY, task.getPriority().name());
         xTask.setAttribute(TASK_COMPLETED, Boolean.toString(task.isCompleted()));
         xTask.setAttribute(TASK_ESTIMATED, Long.toString(task.getEstimatedTime()));
@@ -81,46 +128,112 @@ public class SerializeSupport {
         return xTask;
     }
 
+    /**
+     * Reads tasks and settings from the element. IDEA has already parsed the component file
+     * into the element, so tasks are read from it rather than streamed like in {@link #readTasks}.
+     *
+     * @param taskModel    task model
+     * @param taskSettings plugin settings, can be <code>null</code> if they shouldn't be read
+     * @param element      root of the plugin data
+     * @throws InvalidDataException if tasks can't be read
+     */
     static public void readExternal(ITaskModel taskModel, TaskSettings taskSettings, Element element)
             throws InvalidDataException {
         Element tasksRoot = element.getChild(TASKS);
         if (tasksRoot == null)
             return;
 
-        List tasks = tasksRoot.getChildren();
-
-        for (Object taskElem : tasks) {
-            Element xTask = (Element) taskElem;
-            addTasksRecursively(xTask, taskModel, null);
+        try {
+            new TaskElementReader().read(taskModel, tasksRoot.getChildren());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InvalidDataException("reading of tasks is interrupted");
         }
 
-        taskSettings.readExternal(element);
+        if (taskSettings != null)
+            taskSettings.readExternal(element);
     }
 
-    static private void addTasksRecursively(Element taskElem, ITaskModel model, ITask parentTask) {
-        TaskPriority priority = ExternalizeSupport.getSafelyTaskPriority(taskElem, TASK_PRIORITY, TaskPriority.Normal);
-        boolean completed = ExternalizeSupport.getSafelyBoolean(taskElem, TASK_COMPLETED, false);
-        boolean highlighted = ExternalizeSupport.getSafelyBoolean(taskElem, TASK_HIGHLIGHTED, false);
-        TaskHighlightingType type = ExternalizeSupport.getSafelyHighlightingType(taskElem, TASK_HIGHLIGHTING_TYPE, TaskHighlightingType.Red);
-        long estimated = ExternalizeSupport.getSafelyLong(taskElem, TASK_ESTIMATED, 0);
-        long actual = ExternalizeSupport.getSafelyLong(taskElem, TASK_ACTUAL, 0);
-        long created = ExternalizeSupport.getSafelyLong(taskElem, TASK_CREATED, System.currentTimeMillis());
-
-        String oldVersionTitle = taskElem.getText();
-        String newVersionTitle = taskElem.getAttributeValue(TASK_TITLE);
-        String title;
-        if (newVersionTitle != null && newVersionTitle.length() != 0)
-            title = newVersionTitle;
-        else
-            title = oldVersionTitle;
+    /**
+     * Writes tasks and settings to the stream without building DOM tree. Format is the same
+     * IDEA uses for tasks.xml, so the result can be read by {@link #readExternal} as well.
+     *
+     * @param snapshot     snapshot of the task model
+     * @param taskSettings plugin settings
+     * @param stream       output stream, it isn't closed
+     * @throws IOException if stream can't be written
+     */
+    static public void writeTasks(TaskModelSnapshot snapshot, TaskSettings taskSettings, OutputStream stream)
+            throws IOException {
+        new TaskXmlWriter(stream).writeDocument(snapshot, taskSettings);
+    }
 
-        ITask task = model.addTask(parentTask, title, priority, estimated, actual,
-                created, completed, highlighted);
-        model.setTaskHighlightingType(task, type);
+    /**
+     * Reads tasks and settings from the stream, adding tasks to the model while the document
+     * is parsed. Reads both tasks.xml written by IDEA and files written by {@link #writeTasks}.
+     *
+     * @param taskModel    task model
+     * @param taskSettings plugin settings, can be <code>null</code> if they shouldn't be read
+     * @param stream       input stream, it isn't closed
+     * @throws IOException if stream can't be read or document is broken
+     */
+    static public void readTasks(ITaskModel taskModel, TaskSettings taskSettings, InputStream stream)
+            throws IOException {
+        new TaskXmlReader(taskModel, taskSettings).read(stream);
+    }
 
-        for (Object subTaskElem : taskElem.getChildren()) {
-            Element xSubTask = (Element) subTaskElem;
-            addTasksRecursively(xSubTask, model, task);
-        }
+    /**
+     * Writes tasks and settings in compact binary format.
+     *
+     * @param snapshot     snapshot of the task model
+     * @param taskSettings plugin settings
+     * @param stream       output stream, it isn't closed
+     * @throws IOException if stream can't be written
+     * @see TaskBinaryFormat
+     */
+    static public void writeBinary(TaskModelSnapshot snapshot, TaskSettings taskSettings, OutputStream stream)
+            throws IOException {
+        TaskBinaryFormat.write(snapshot, taskSettings, stream);
+    }
+
+    /**
+     * Reads tasks and settings written by {@link #writeBinary}.
+     *
+     * @param taskModel    task model
+     * @param taskSettings plugin settings, can be <code>null</code> if they shouldn't be read
+     * @param stream       input stream, it isn't closed
+     * @throws IOException if stream can't be read, is broken or has unsupported version
+     */
+    static public void readBinary(ITaskModel taskModel, TaskSettings taskSettings, InputStream stream)
+            throws IOException {
+        TaskBinaryFormat.read(taskModel, taskSettings, stream);
+    }
+
+    /**
+     * Converts tasks.xml to binary format, all attributes of tasks and settings are kept.
+     *
+     * @param xml    stream with tasks.xml
+     * @param binary output stream for binary format
+     * @throws IOException if streams can't be read or written
+     */
+    static public void convertXmlToBinary(InputStream xml, OutputStream binary) throws IOException {
+        TaskModel taskModel = new TaskModel();
+        TaskSettings taskSettings = new TaskSettings();
+        readTasks(taskModel, taskSettings, xml);
+        writeBinary(taskModel.snapshot(), taskSettings, binary);
+    }
+
+    /**
+     * Converts binary format to tasks.xml, all attributes of tasks and settings are kept.
+     *
+     * @param binary stream with binary format
+     * @param xml    output stream for tasks.xml
+     * @throws IOException if streams can't be read or written
+     */
+    static public void convertBinaryToXml(InputStream binary, OutputStream xml) throws IOException {
+        TaskModel taskModel = new TaskModel();
+        TaskSettings taskSettings = new TaskSettings();
+        readBinary(taskModel, taskSettings, binary);
+        writeTasks(taskModel.snapshot(), taskSettings, xml);
     }
 }
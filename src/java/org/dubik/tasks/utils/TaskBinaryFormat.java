@@ -0,0 +1,269 @@
+/*
+ * Copyright 2006 Sergiy Dubovik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dubik.tasks.utils;
+
+import org.dubik.tasks.TaskSettings;
+import org.dubik.tasks.model.*;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary format of tasks and settings. Layout of version 1:
+ * <pre>
+ * magic         4 bytes "TSKB"
+ * version       varint
+ * settings      1 byte, one bit per flag
+ * titles        varint count, then every distinct title as a string
+ * tasks         varint count of top level tasks, then every task followed by its sub tasks:
+ *   flags       1 byte: completed, highlighted, 2 bits priority, 2 bits highlighting type
+ *   id          signed varint, difference with id of previous task
+ *   created     signed varint, difference with creation time of previous task
+ *   estimated   signed varint
+ *   actual      signed varint
+ *   title       varint index in titles, 0 means no title
+ *   sub tasks   varint count
+ * </pre>
+ * Readers refuse files with newer version.
+ *
+ * @author Sergiy Dubovik
+ */
+public class TaskBinaryFormat {
+    static final byte[] MAGIC = {'T', 'S', 'K', 'B'};
+    static final int VERSION = 1;
+
+    static final int COMPLETED = 1;
+    static final int HIGHLIGHTED = 1 << 1;
+    static final int PRIORITY_SHIFT = 2;
+    static final int HIGHLIGHTING_SHIFT = 4;
+    static final int TWO_BITS = 3;
+
+    private static final int SETTINGS_ENABLE_ACTUAL_TIME = 1;
+    private static final int SETTINGS_ASK_ACTUAL = 1 << 1;
+    private static final int SETTINGS_ENABLE_TASKS_SCOPE = 1 << 2;
+    private static final int SETTINGS_PROPAGATE_PRIORITY = 1 << 3;
+    private static final int SETTINGS_ONE_LEVEL_ONLY = 1 << 4;
+
+    /**
+     * Writes tasks and settings.
+     *
+     * @param snapshot snapshot of the task model
+     * @param settings plugin settings
+     * @param stream   output stream, it isn't closed
+     * @throws IOException if stream can't be written
+     */
+    static public void write(TaskModelSnapshot snapshot, TaskSettings settings, OutputStream stream)
+            throws IOException {
+        TaskDataOutput out = new TaskDataOutput(new BufferedOutputStream(stream));
+        out.write(MAGIC);
+        out.writeVarLong(VERSION);
+        out.writeByte(packSettings(settings));
+
+        Map<String, Integer> titles = new LinkedHashMap<String, Integer>();
+        for (TaskIterator it = TaskIterator.preOrder(snapshot); it.hasNext();) {
+            String title = it.next().getTitle();
+            if (title != null && !titles.containsKey(title))
+                titles.put(title, titles.size() + 1);
+        }
+
+        out.writeVarLong(titles.size());
+        for (String title : titles.keySet())
+            out.writeString(title);
+
+        long previousId = 0;
+        long previousCreated = 0;
+        out.writeVarLong(snapshot.size());
+        for (TaskIterator it = TaskIterator.preOrder(snapshot); it.hasNext();) {
+            ITask task = it.next();
+            out.writeByte(packFlags(task));
+            out.writeSignedVarLong(task.getId() - previousId);
+            out.writeSignedVarLong(task.getCreationTime() - previousCreated);
+            out.writeSignedVarLong(task.getEstimatedTime());
+            out.writeSignedVarLong(task.getActualTime());
+            out.writeVarLong(task.getTitle() != null ? titles.get(task.getTitle()) : 0);
+            out.writeVarLong(task.size());
+            previousId = task.getId();
+            previousCreated = task.getCreationTime();
+        }
+
+        out.flush();
+    }
+
+    static int packFlags(ITask task) {
+        return packFlags(task.isCompleted(), task.isHighlighted(), task.getPriority(), task.getHighlightingType());
+    }
+
+    static int packFlags(boolean completed, boolean highlighted, TaskPriority priority,
+                         TaskHighlightingType highlightingType) {
+        int flags = 0;
+        if (completed)
+            flags |= COMPLETED;
+        if (highlighted)
+            flags |= HIGHLIGHTED;
+        flags |= priority.ordinal() << PRIORITY_SHIFT;
+        flags |= highlightingType.ordinal() << HIGHLIGHTING_SHIFT;
+
+        return flags;
+    }
+
+    /**
+     * Checks that flags read from a stream contain known priority and highlighting type.
+     *
+     * @param flags task flags
+     * @throws IOException if flags are broken
+     */
+    static void checkFlags(int flags) throws IOException {
+        if (((flags >> PRIORITY_SHIFT) & TWO_BITS) >= TaskPriority.values().length ||
+                ((flags >> HIGHLIGHTING_SHIFT) & TWO_BITS) >= TaskHighlightingType.values().length)
+            throw new IOException("broken task flags " + flags);
+    }
+
+    static TaskPriority unpackPriority(int flags) {
+        return TaskPriority.values()[(flags >> PRIORITY_SHIFT) & TWO_BITS];
+    }
+
+    static TaskHighlightingType unpackHighlightingType(int flags) {
+        return TaskHighlightingType.values()[(flags >> HIGHLIGHTING_SHIFT) & TWO_BITS];
+    }
+
+    static private int packSettings(TaskSettings settings) {
+        int flags = 0;
+        if (settings.isEnableActualTime())
+            flags |= SETTINGS_ENABLE_ACTUAL_TIME;
+        if (settings.isAskActualWhenCompleteTask())
+            flags |= SETTINGS_ASK_ACTUAL;
+        if (settings.isEnableTasksScope())
+            flags |= SETTINGS_ENABLE_TASKS_SCOPE;
+        if (settings.isPropagatePriority())
+            flags |= SETTINGS_PROPAGATE_PRIORITY;
+        if (settings.isPriorityPropagatedOneLevelOnly())
+            flags |= SETTINGS_ONE_LEVEL_ONLY;
+
+        return flags;
+    }
+
+    static private void unpackSettings(int flags, TaskSettings settings) {
+        settings.setEnableActualTime((flags & SETTINGS_ENABLE_ACTUAL_TIME) != 0);
+        settings.setAskActualWhenCompleteTask((flags & SETTINGS_ASK_ACTUAL) != 0);
+        settings.setEnableTasksScope((flags & SETTINGS_ENABLE_TASKS_SCOPE) != 0);
+        settings.setPropagatePriority((flags & SETTINGS_PROPAGATE_PRIORITY) != 0);
+        settings.setPriorityPropagatedOneLevelOnly((flags & SETTINGS_ONE_LEVEL_ONLY) != 0);
+    }
+
+    /**
+     * Reads tasks and settings, tasks are added to the model in one batch.
+     *
+     * @param model    task model
+     * @param settings plugin settings, can be <code>null</code> if they shouldn't be read
+     * @param stream   input stream, it isn't closed
+     * @throws IOException if stream can't be read, is broken or has unsupported version
+     */
+    static public void read(ITaskModel model, TaskSettings settings, InputStream stream) throws IOException {
+        readRecords(settings, stream).addTo(model);
+    }
+
+    /**
+     * Reads tasks and settings, tasks are read into a record tree, so that stored changes
+     * can be applied before tasks are added to the model.
+     *
+     * @param settings plugin settings, can be <code>null</code> if they shouldn't be read
+     * @param stream   input stream, it isn't closed
+     * @return tree of read tasks
+     * @throws IOException if stream can't be read, is broken or has unsupported version
+     */
+    static public TaskRecordTree readRecords(TaskSettings settings, InputStream stream) throws IOException {
+        TaskDataInput in = new TaskDataInput(new BufferedInputStream(stream));
+        readHeader(in);
+
+        int settingsFlags = in.readUnsignedByte();
+        if (settings != null)
+            unpackSettings(settingsFlags, settings);
+
+        int titleCount = in.readVarInt();
+        List<String> titles = new ArrayList<String>(titleCount + 1);
+        titles.add(null);
+        for (int i = 0; i < titleCount; i++)
+            titles.add(in.readString());
+
+        TaskRecordTree tree = new TaskRecordTree();
+        long previousId = 0;
+        long previousCreated = 0;
+
+        // parents of the next task and amounts of their sub tasks, which are not read yet
+        List<TaskRecord> parents = new ArrayList<TaskRecord>();
+        List<Integer> remaining = new ArrayList<Integer>();
+        parents.add(null);
+        remaining.add(in.readVarInt());
+        int topLevelIndex = 0;
+        while (true) {
+            int top = parents.size() - 1;
+            if (remaining.get(top) == 0) {
+                if (top == 0)
+                    break;
+
+                parents.remove(top);
+                remaining.remove(top);
+                continue;
+            }
+            remaining.set(top, remaining.get(top) - 1);
+
+            TaskRecord parent = parents.get(top);
+            int index = parent != null ? parent.size() : topLevelIndex++;
+
+            int flags = in.readUnsignedByte();
+            long id = previousId + in.readSignedVarLong();
+            long created = previousCreated + in.readSignedVarLong();
+            long estimated = in.readSignedVarLong();
+            long actual = in.readSignedVarLong();
+            int titleIndex = in.readVarInt();
+            int subTaskCount = in.readVarInt();
+            previousId = id;
+            previousCreated = created;
+
+            if (titleIndex >= titles.size())
+                throw new IOException("unknown title " + titleIndex);
+            checkFlags(flags);
+
+            TaskRecord task = new TaskRecord(id, parent != null ? parent.getId() : 0, index, flags,
+                    titles.get(titleIndex), estimated, actual, created);
+            tree.append(parent, task);
+
+            if (subTaskCount != 0) {
+                parents.add(task);
+                remaining.add(subTaskCount);
+            }
+        }
+
+        return tree;
+    }
+
+    static void readHeader(TaskDataInput in) throws IOException {
+        byte[] magic = new byte[MAGIC.length];
+        in.readFully(magic);
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (magic[i] != MAGIC[i])
+                throw new IOException("not a task file");
+        }
+
+        long version = in.readVarLong();
+        if (version > VERSION)
+            throw new IOException("unsupported version of task file: " + version);
+    }
+
+}
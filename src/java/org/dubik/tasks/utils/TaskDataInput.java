@@ -0,0 +1,90 @@
+/*
+ * Copyright 2006 Sergiy Dubovik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dubik.tasks.utils;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Data input which reads numbers and strings written by {@link TaskDataOutput}.
+ *
+ * @author Sergiy Dubovik
+ */
+public class TaskDataInput extends DataInputStream {
+    public TaskDataInput(InputStream in) {
+        super(in);
+    }
+
+    /**
+     * Reads non negative number.
+     *
+     * @return number
+     * @throws IOException if stream is broken or ended
+     */
+    public long readVarLong() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+
+        throw new IOException("malformed number");
+    }
+
+    /**
+     * Reads number written by {@link TaskDataOutput#writeSignedVarLong(long)}.
+     *
+     * @return number
+     * @throws IOException if stream is broken or ended
+     */
+    public long readSignedVarLong() throws IOException {
+        long value = readVarLong();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Reads non negative number which must fit into int.
+     *
+     * @return number
+     * @throws IOException if stream is broken or ended
+     */
+    public int readVarInt() throws IOException {
+        long value = readVarLong();
+        if (value > Integer.MAX_VALUE)
+            throw new IOException("number is too big: " + value);
+
+        return (int) value;
+    }
+
+    /**
+     * Reads string written by {@link TaskDataOutput#writeString(String)}.
+     *
+     * @return string or <code>null</code>
+     * @throws IOException if stream is broken or ended
+     */
+    public String readString() throws IOException {
+        int length = readVarInt();
+        if (length == 0)
+            return null;
+
+        byte[] bytes = new byte[length - 1];
+        readFully(bytes);
+        return new String(bytes, SerializeSupport.ENCODING);
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2006 Sergiy Dubovik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dubik.tasks.utils;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Data output with variable length encoding of numbers, used by binary task storage.
+ * Small numbers take one byte, each next byte carries seven more bits.
+ *
+ * @author Sergiy Dubovik
+ * @see TaskDataInput
+ */
+public class TaskDataOutput extends DataOutputStream {
+    public TaskDataOutput(OutputStream out) {
+        super(out);
+    }
+
+    /**
+     * Writes non negative number.
+     *
+     * @param value number
+     * @throws IOException if stream can't be written
+     */
+    public void writeVarLong(long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        write((int) value);
+    }
+
+    /**
+     * Writes number which can be negative, e.g. difference between two values.
+     *
+     * @param value number
+     * @throws IOException if stream can't be written
+     */
+    public void writeSignedVarLong(long value) throws IOException {
+        writeVarLong((value << 1) ^ (value >> 63));
+    }
+
+    /**
+     * Writes string as length and UTF-8 bytes, <code>null</code> is written as zero length.
+     *
+     * @param value string, can be <code>null</code>
+     * @throws IOException if stream can't be written
+     */
+    public void writeString(String value) throws IOException {
+        if (value == null) {
+            writeVarLong(0);
+            return;
+        }
+
+        byte[] bytes = value.getBytes(SerializeSupport.ENCODING);
+        writeVarLong(bytes.length + 1);
+        write(bytes);
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright 2006 Sergiy Dubovik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dubik.tasks.utils;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only file of changes made after the full snapshot was written in
+ * {@link TaskBinaryFormat}. Layout of version 1:
+ * <pre>
+ * magic         4 bytes "TSKD"
+ * version       varint
+ * base length   8 bytes, length of the snapshot file changes are made to
+ * base checksum 8 bytes, CRC32 of the snapshot file
+ * segments      till the end of file, one segment per save:
+ *   length      varint length of payload
+ *   payload     varint count of deleted tasks, then their ids as varints,
+ *               varint count of records, then every {@link TaskRecord}
+ *   checksum    4 bytes, CRC32 of payload
+ * </pre>
+ * Segments are applied in order. Segment which is cut or has wrong checksum ends the file,
+ * e.g. if IDEA was killed in the middle of a save.
+ *
+ * @author Sergiy Dubovik
+ */
+public class TaskDeltaFormat {
+    static final byte[] MAGIC = {'T', 'S', 'K', 'D'};
+    static final int VERSION = 1;
+
+    /**
+     * Writes header of the delta file.
+     *
+     * @param stream       output stream, it isn't closed
+     * @param baseLength   length of the snapshot file
+     * @param baseChecksum CRC32 of the snapshot file
+     * @throws IOException if stream can't be written
+     */
+    static public void writeHeader(OutputStream stream, long baseLength, long baseChecksum) throws IOException {
+        TaskDataOutput out = new TaskDataOutput(stream);
+        out.write(MAGIC);
+        out.writeVarLong(VERSION);
+        out.writeLong(baseLength);
+        out.writeLong(baseChecksum);
+        out.flush();
+    }
+
+    /**
+     * Writes one segment. Records must be ordered so that parent of a task is either already
+     * stored or written before the task, and sub tasks of the same parent are written in
+     * ascending order of their indexes.
+     *
+     * @param stream  output stream, it isn't closed
+     * @param deleted ids of deleted tasks
+     * @param records records of added, changed or moved tasks
+     * @return amount of written bytes
+     * @throws IOException if stream can't be written
+     */
+    static public int writeSegment(OutputStream stream, Collection<Long> deleted, List<TaskRecord> records)
+            throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        TaskDataOutput out = new TaskDataOutput(payload);
+        out.writeVarLong(deleted.size());
+        for (long id : deleted)
+            out.writeVarLong(id);
+
+        out.writeVarLong(records.size());
+        for (TaskRecord record : records)
+            record.write(out);
+        out.flush();
+
+        CRC32 checksum = new CRC32();
+        byte[] bytes = payload.toByteArray();
+        checksum.update(bytes);
+
+        // whole segment is written at once, so it's either complete or cut
+        ByteArrayOutputStream segment = new ByteArrayOutputStream(bytes.length + 9);
+        out = new TaskDataOutput(segment);
+        out.writeVarLong(bytes.length);
+        out.write(bytes);
+        out.writeInt((int) checksum.getValue());
+        out.flush();
+
+        segment.writeTo(stream);
+        stream.flush();
+
+        return segment.size();
+    }
+
+    /**
+     * Applies segments to the tree read from the snapshot file. Delta file made for another
+     * snapshot is ignored.
+     *
+     * @param stream       input stream, it isn't closed
+     * @param baseLength   length of the snapshot file
+     * @param baseChecksum CRC32 of the snapshot file
+     * @param tree         tasks read from the snapshot file
+     * @return length of header and complete segments, new segments should be written from there;
+     *         0 if delta file is made for another snapshot or it's broken
+     * @throws IOException if stream can't be read
+     */
+    static public long apply(InputStream stream, long baseLength, long baseChecksum, TaskRecordTree tree)
+            throws IOException {
+        CountingInputStream counter = new CountingInputStream(new BufferedInputStream(stream));
+        TaskDataInput in = new TaskDataInput(counter);
+        try {
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            for (int i = 0; i < MAGIC.length; i++) {
+                if (magic[i] != MAGIC[i])
+                    return 0;
+            }
+
+            if (in.readVarLong() > VERSION || in.readLong() != baseLength || in.readLong() != baseChecksum)
+                return 0;
+        } catch (EOFException e) {
+            return 0;
+        }
+
+        long validLength = counter.getCount();
+        while (true) {
+            byte[] bytes;
+            try {
+                bytes = readPayload(in, in.readVarInt());
+
+                CRC32 checksum = new CRC32();
+                checksum.update(bytes);
+                if (in.readInt() != (int) checksum.getValue())
+                    break;
+            } catch (EOFException e) {
+                break;
+            } catch (IOException e) {
+                // broken length
+                break;
+            }
+
+            applySegment(new TaskDataInput(new ByteArrayInputStream(bytes)), tree);
+            validLength = counter.getCount();
+        }
+
+        return validLength;
+    }
+
+    /**
+     * Reads payload in chunks, so broken length fails with end of file instead of
+     * allocating huge array.
+     */
+    static private byte[] readPayload(TaskDataInput in, int length) throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(Math.min(length, 8192));
+        byte[] buffer = new byte[8192];
+        while (length > 0) {
+            int chunk = Math.min(length, buffer.length);
+            in.readFully(buffer, 0, chunk);
+            payload.write(buffer, 0, chunk);
+            length -= chunk;
+        }
+
+        return payload.toByteArray();
+    }
+
+    static private void applySegment(TaskDataInput in, TaskRecordTree tree) throws IOException {
+        int deletedCount = in.readVarInt();
+        for (int i = 0; i < deletedCount; i++)
+            tree.delete(in.readVarLong());
+
+        int recordCount = in.readVarInt();
+        List<TaskRecord> records = new ArrayList<TaskRecord>(recordCount);
+        for (int i = 0; i < recordCount; i++)
+            records.add(TaskRecord.read(in));
+
+        tree.putAll(records);
+    }
+
+    static private class CountingInputStream extends FilterInputStream {
+        private long count;
+
+        public CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1)
+                count++;
+
+            return b;
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0)
+                count += read;
+
+            return read;
+        }
+
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+
+            return skipped;
+        }
+
+        public long getCount() {
+            return count;
+        }
+    }
+}
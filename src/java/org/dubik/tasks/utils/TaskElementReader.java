@@ -0,0 +1,191 @@
+/*
+ * Copyright 2006 Sergiy Dubovik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dubik.tasks.utils;
+
+import org.dubik.tasks.model.ITaskModel;
+import org.dubik.tasks.model.TaskHighlightingType;
+import org.dubik.tasks.model.TaskPriority;
+import org.jdom.Element;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Builds tasks from <code>task</code> elements of tasks.xml. Big documents are split at top level
+ * tasks and the parts are decoded in parallel, each part into its own record tree. Then all parts
+ * are added to the model in original order in one batch, so listeners get one event.
+ *
+ * @author Sergiy Dubovik
+ */
+public class TaskElementReader {
+    // smaller documents are decoded in the calling thread, starting threads costs more
+    static final int MIN_PARALLEL_TASKS = 512;
+    // parts per thread, so a thread which got big subtrees doesn't hold up others
+    private static final int PARTS_PER_THREAD = 4;
+
+    private int threads;
+
+    /**
+     * Creates reader which uses one thread per processor.
+     */
+    public TaskElementReader() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates reader.
+     *
+     * @param threads amount of threads decoding parts of the document, 1 decodes in the calling thread
+     */
+    public TaskElementReader(int threads) {
+        assert threads > 0;
+
+        this.threads = threads;
+    }
+
+    /**
+     * Adds tasks to the model in one batch.
+     *
+     * @param model    task model
+     * @param elements top level <code>task</code> elements
+     * @throws InterruptedException if thread is interrupted while parts are decoded
+     */
+    public void read(ITaskModel model, List elements) throws InterruptedException {
+        // lists of JDOM children look for the element on every get(), copy is read by index
+        elements = new ArrayList(elements);
+
+        List<TaskRecordTree> parts;
+        if (threads == 1 || elements.size() < MIN_PARALLEL_TASKS)
+            parts = decodeInCallingThread(elements);
+        else
+            parts = decodeInParallel(elements);
+
+        model.beginBatch();
+        try {
+            for (TaskRecordTree part : parts)
+                part.addTo(model);
+        } finally {
+            model.endBatch();
+        }
+    }
+
+    private List<TaskRecordTree> decodeInCallingThread(List elements) {
+        List<TaskRecordTree> parts = new ArrayList<TaskRecordTree>(1);
+        parts.add(decode(elements, 0, elements.size()));
+
+        return parts;
+    }
+
+    private List<TaskRecordTree> decodeInParallel(final List elements) throws InterruptedException {
+        int partCount = Math.min(threads * PARTS_PER_THREAD, elements.size());
+        List<Callable<TaskRecordTree>> jobs = new ArrayList<Callable<TaskRecordTree>>(partCount);
+        for (int i = 0; i < partCount; i++) {
+            final int from = (int) ((long) elements.size() * i / partCount);
+            final int to = (int) ((long) elements.size() * (i + 1) / partCount);
+            jobs.add(new Callable<TaskRecordTree>() {
+                public TaskRecordTree call() throws Exception {
+                    return decode(elements, from, to);
+                }
+            });
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<TaskRecordTree> parts = new ArrayList<TaskRecordTree>(partCount);
+            for (Future<TaskRecordTree> part : executor.invokeAll(jobs))
+                parts.add(part.get());
+
+            return parts;
+        } catch (ExecutionException e) {
+            // decoding doesn't throw checked exceptions
+            throw new IllegalStateException("can't decode tasks", e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Decodes top level tasks from <code>from</code> inclusive to <code>to</code> exclusive.
+     * Elements are only read, so parts of the document can be decoded at the same time.
+     */
+    static private TaskRecordTree decode(List elements, int from, int to) {
+        TaskRecordTree tree = new TaskRecordTree();
+        for (int i = from; i < to; i++) {
+            Element taskElem = (Element) elements.get(i);
+            TaskRecord task = decodeTask(taskElem, null, i);
+            tree.append(null, task);
+            decodeSubTasks(taskElem, task, tree);
+        }
+
+        return tree;
+    }
+
+    /**
+     * Decodes sub tasks of the task without recursion, so deeply nested documents
+     * don't overflow the stack.
+     */
+    static private void decodeSubTasks(Element taskElem, TaskRecord task, TaskRecordTree tree) {
+        // sub task elements and records of tasks on the path to the current one, JDOM
+        // lists of children are copied once, since their get() scans from the start
+        List<List> subTasksPath = new ArrayList<List>();
+        List<TaskRecord> recordPath = new ArrayList<TaskRecord>();
+        subTasksPath.add(new ArrayList(taskElem.getChildren()));
+        recordPath.add(task);
+        while (!subTasksPath.isEmpty()) {
+            int top = subTasksPath.size() - 1;
+            TaskRecord parent = recordPath.get(top);
+            List subTasks = subTasksPath.get(top);
+            if (parent.size() == subTasks.size()) {
+                subTasksPath.remove(top);
+                recordPath.remove(top);
+                continue;
+            }
+
+            Element subTaskElem = (Element) subTasks.get(parent.size());
+            TaskRecord subTask = decodeTask(subTaskElem, parent, parent.size());
+            tree.append(parent, subTask);
+            subTasksPath.add(new ArrayList(subTaskElem.getChildren()));
+            recordPath.add(subTask);
+        }
+    }
+
+    static private TaskRecord decodeTask(Element taskElem, TaskRecord parent, int index) {
+        TaskPriority priority = ExternalizeSupport.getSafelyTaskPriority(taskElem, SerializeSupport.TASK_PRIORITY,
+                TaskPriority.Normal);
+        boolean completed = ExternalizeSupport.getSafelyBoolean(taskElem, SerializeSupport.TASK_COMPLETED, false);
+        boolean highlighted = ExternalizeSupport.getSafelyBoolean(taskElem, SerializeSupport.TASK_HIGHLIGHTED, false);
+        TaskHighlightingType type = ExternalizeSupport.getSafelyHighlightingType(taskElem,
+                SerializeSupport.TASK_HIGHLIGHTING_TYPE, TaskHighlightingType.Red);
+        long estimated = ExternalizeSupport.getSafelyLong(taskElem, SerializeSupport.TASK_ESTIMATED, 0);
+        long actual = ExternalizeSupport.getSafelyLong(taskElem, SerializeSupport.TASK_ACTUAL, 0);
+        long created = ExternalizeSupport.getSafelyLong(taskElem, SerializeSupport.TASK_CREATED,
+                System.currentTimeMillis());
+        long id = ExternalizeSupport.getSafelyLong(taskElem, SerializeSupport.TASK_ID, 0);
+
+        String oldVersionTitle = taskElem.getText();
+        String newVersionTitle = taskElem.getAttributeValue(SerializeSupport.TASK_TITLE);
+        String title;
+        if (newVersionTitle != null && newVersionTitle.length() != 0)
+            title = newVersionTitle;
+        else
+            title = oldVersionTitle;
+
+        int flags = TaskBinaryFormat.packFlags(completed, highlighted, priority, type);
+        return new TaskRecord(id, parent != null ? parent.getId() : 0, index, flags, title, estimated, actual,
+                created);
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2006 Sergiy Dubovik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dubik.tasks.utils;
+
+import org.dubik.tasks.model.ITask;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Stored state of one task: its attributes and position in the parent.
+ * Records are used to load tasks from storage and to write changed tasks.
+ *
+ * @author Sergiy Dubovik
+ * @see TaskRecordTree
+ */
+public class TaskRecord {
+    private long id;
+    private long parentId;
+    private int index;
+    private int flags;
+    private String title;
+    private long estimated;
+    private long actual;
+    private long created;
+
+    private TaskRecord parent;
+    private List<TaskRecord> subTasks;
+
+    public TaskRecord(long id, long parentId, int index, int flags, String title, long estimated, long actual,
+                      long created) {
+        this.id = id;
+        this.parentId = parentId;
+        this.index = index;
+        this.flags = flags;
+        this.title = title;
+        this.estimated = estimated;
+        this.actual = actual;
+        this.created = created;
+    }
+
+    /**
+     * Creates record of the task.
+     *
+     * @param task  task
+     * @param index index of the task in its parent or among top level tasks
+     * @return record
+     */
+    public static TaskRecord create(ITask task, int index) {
+        long parentId = task.getParent() != null ? task.getParent().getId() : 0;
+        return new TaskRecord(task.getId(), parentId, index, TaskBinaryFormat.packFlags(task), task.getTitle(),
+                task.getEstimatedTime(), task.getActualTime(), task.getCreationTime());
+    }
+
+    /**
+     * Writes record without sub tasks.
+     *
+     * @param out output
+     * @throws IOException if output can't be written
+     */
+    public void write(TaskDataOutput out) throws IOException {
+        out.writeVarLong(id);
+        out.writeVarLong(parentId);
+        out.writeVarLong(index);
+        out.writeByte(flags);
+        out.writeSignedVarLong(created);
+        out.writeSignedVarLong(estimated);
+        out.writeSignedVarLong(actual);
+        out.writeString(title);
+    }
+
+    /**
+     * Reads record written by {@link #write(TaskDataOutput)}.
+     *
+     * @param in input
+     * @return record
+     * @throws IOException if input is broken or ended
+     */
+    public static TaskRecord read(TaskDataInput in) throws IOException {
+        long id = in.readVarLong();
+        long parentId = in.readVarLong();
+        int index = in.readVarInt();
+        int flags = in.readUnsignedByte();
+        TaskBinaryFormat.checkFlags(flags);
+        long created = in.readSignedVarLong();
+        long estimated = in.readSignedVarLong();
+        long actual = in.readSignedVarLong();
+        String title = in.readString();
+
+        return new TaskRecord(id, parentId, index, flags, title, estimated, actual, created);
+    }
+
+    /**
+     * Copies attributes of other record, sub tasks are kept.
+     *
+     * @param record record with new state of the task
+     */
+    void update(TaskRecord record) {
+        parentId = record.parentId;
+        index = record.index;
+        flags = record.flags;
+        title = record.title;
+        estimated = record.estimated;
+        actual = record.actual;
+        created = record.created;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public long getParentId() {
+        return parentId;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public int getFlags() {
+        return flags;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public long getEstimatedTime() {
+        return estimated;
+    }
+
+    public long getActualTime() {
+        return actual;
+    }
+
+    public long getCreationTime() {
+        return created;
+    }
+
+    TaskRecord getParent() {
+        return parent;
+    }
+
+    void setParent(TaskRecord parent) {
+        this.parent = parent;
+    }
+
+    List<TaskRecord> getSubTasks() {
+        if (subTasks == null)
+            subTasks = new ArrayList<TaskRecord>(2);
+
+        return subTasks;
+    }
+
+    int size() {
+        return subTasks != null ? subTasks.size() : 0;
+    }
+}
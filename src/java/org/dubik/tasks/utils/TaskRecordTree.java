@@ -0,0 +1,207 @@
+/*
+ * Copyright 2006 Sergiy Dubovik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dubik.tasks.utils;
+
+import org.dubik.tasks.model.ITask;
+import org.dubik.tasks.model.ITaskModel;
+
+import java.util.*;
+
+/**
+ * Tree of task records. Stored snapshot is read into the tree, then stored changes are
+ * applied on top of it and finally all tasks are added to the model in one batch.
+ *
+ * @author Sergiy Dubovik
+ */
+public class TaskRecordTree {
+    private List<TaskRecord> tasks = new ArrayList<TaskRecord>();
+    private Map<Long, TaskRecord> records = new HashMap<Long, TaskRecord>();
+
+    /**
+     * Adds record as the last sub task, used when records are read in order.
+     *
+     * @param parent parent record or <code>null</code> for top level task
+     * @param record record
+     */
+    void append(TaskRecord parent, TaskRecord record) {
+        record.setParent(parent);
+        if (parent != null)
+            parent.getSubTasks().add(record);
+        else
+            tasks.add(record);
+
+        records.put(record.getId(), record);
+    }
+
+    /**
+     * Adds new tasks or changes existing ones. Tasks are put to positions stored in the records,
+     * their sub tasks stay with them. Record which refers to a missing parent becomes top level.
+     * <p/>
+     * Moved tasks are taken out of the tree first, so records must be ordered so that parent
+     * of a task is either in the tree or goes before the task, and records of the same parent are
+     * sorted by index. Task which stays at its place is only updated, unless other tasks of the
+     * same parent are moved, so replaying long journal of small changes doesn't shift lists
+     * of sub tasks over and over.
+     *
+     * @param changes new state of tasks
+     */
+    public void putAll(List<TaskRecord> changes) {
+        Set<TaskRecord> movedParents = new HashSet<TaskRecord>();
+        for (TaskRecord record : changes) {
+            TaskRecord task = records.get(record.getId());
+            if (task == null || !isInPlace(task, record)) {
+                if (task != null)
+                    movedParents.add(task.getParent());
+                movedParents.add(findParent(record));
+            }
+        }
+
+        List<TaskRecord> moved = new ArrayList<TaskRecord>();
+        for (TaskRecord record : changes) {
+            TaskRecord task = records.get(record.getId());
+            if (task != null && !movedParents.contains(task.getParent()) && isInPlace(task, record)) {
+                task.update(record);
+            } else {
+                if (task != null)
+                    detach(task);
+                moved.add(record);
+            }
+        }
+
+        for (TaskRecord record : moved)
+            put(record);
+    }
+
+    private boolean isInPlace(TaskRecord task, TaskRecord record) {
+        TaskRecord parent = task.getParent();
+        if (parent != null ? parent.getId() != record.getParentId() : record.getParentId() != 0)
+            return false;
+
+        List<TaskRecord> siblings = parent != null ? parent.getSubTasks() : tasks;
+        return record.getIndex() < siblings.size() && siblings.get(record.getIndex()) == task;
+    }
+
+    private TaskRecord findParent(TaskRecord record) {
+        return record.getParentId() != 0 ? records.get(record.getParentId()) : null;
+    }
+
+    private void put(TaskRecord record) {
+        TaskRecord task = records.get(record.getId());
+        if (task != null) {
+            task.update(record);
+        } else {
+            task = record;
+            records.put(task.getId(), task);
+        }
+
+        TaskRecord parent = findParent(record);
+        if (parent != null && isInside(parent, task))
+            parent = null;
+
+        task.setParent(parent);
+        List<TaskRecord> siblings = parent != null ? parent.getSubTasks() : tasks;
+        siblings.add(Math.min(record.getIndex(), siblings.size()), task);
+    }
+
+    /**
+     * Removes task and its sub tasks.
+     *
+     * @param id id of the task
+     */
+    public void delete(long id) {
+        TaskRecord task = records.get(id);
+        if (task == null)
+            return;
+
+        detach(task);
+
+        List<TaskRecord> removed = new ArrayList<TaskRecord>();
+        removed.add(task);
+        while (!removed.isEmpty()) {
+            TaskRecord record = removed.remove(removed.size() - 1);
+            records.remove(record.getId());
+            if (record.size() != 0)
+                removed.addAll(record.getSubTasks());
+        }
+    }
+
+    private void detach(TaskRecord task) {
+        TaskRecord parent = task.getParent();
+        if (parent != null)
+            parent.getSubTasks().remove(task);
+        else
+            tasks.remove(task);
+
+        task.setParent(null);
+    }
+
+    private boolean isInside(TaskRecord record, TaskRecord task) {
+        for (TaskRecord parent = record; parent != null; parent = parent.getParent()) {
+            if (parent == task)
+                return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns amount of all tasks in the tree.
+     *
+     * @return amount of tasks
+     */
+    public int size() {
+        return records.size();
+    }
+
+    /**
+     * Adds all tasks to the model in one batch.
+     *
+     * @param model task model
+     */
+    public void addTo(ITaskModel model) {
+        model.beginBatch();
+        try {
+            // records to add with tasks of their parents, last goes first so order is kept
+            List<TaskRecord> records = new ArrayList<TaskRecord>();
+            List<ITask> parents = new ArrayList<ITask>();
+            for (int i = tasks.size() - 1; i >= 0; i--) {
+                records.add(tasks.get(i));
+                parents.add(null);
+            }
+
+            while (!records.isEmpty()) {
+                TaskRecord record = records.remove(records.size() - 1);
+                ITask task = addTask(model, parents.remove(parents.size() - 1), record);
+                for (int i = record.size() - 1; i >= 0; i--) {
+                    records.add(record.getSubTasks().get(i));
+                    parents.add(task);
+                }
+            }
+        } finally {
+            model.endBatch();
+        }
+    }
+
+    private ITask addTask(ITaskModel model, ITask parent, TaskRecord record) {
+        int flags = record.getFlags();
+        ITask task = model.addTask(record.getId(), parent, record.getTitle(), TaskBinaryFormat.unpackPriority(flags),
+                record.getEstimatedTime(), record.getActualTime(), record.getCreationTime(),
+                (flags & TaskBinaryFormat.COMPLETED) != 0, (flags & TaskBinaryFormat.HIGHLIGHTED) != 0);
+        model.setTaskHighlightingType(task, TaskBinaryFormat.unpackHighlightingType(flags));
+
+        return task;
+    }
+}
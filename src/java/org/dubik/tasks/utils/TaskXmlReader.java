@@ -0,0 +1,185 @@
+/*
+ * Copyright 2006 Sergiy Dubovik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dubik.tasks.utils;
+
+import org.dubik.tasks.TaskSettings;
+import org.dubik.tasks.model.ITask;
+import org.dubik.tasks.model.ITaskModel;
+import org.dubik.tasks.model.TaskHighlightingType;
+import org.dubik.tasks.model.TaskPriority;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads tasks and settings written by <code>SerializeSupport</code> or {@link TaskXmlWriter}
+ * from a stream. Tasks are added to the model while document is parsed, so whole document
+ * is never kept in memory.
+ *
+ * @author Sergiy Dubovik
+ */
+public class TaskXmlReader extends DefaultHandler {
+    private ITaskModel model;
+    private TaskSettings settings;
+
+    private int tasksDepth;
+    private List<PendingTask> openTasks = new ArrayList<PendingTask>();
+
+    public TaskXmlReader(ITaskModel model, TaskSettings settings) {
+        this.model = model;
+        this.settings = settings;
+    }
+
+    /**
+     * Reads document and adds its tasks to the model in one batch.
+     *
+     * @param stream stream with the document
+     * @throws IOException if stream can't be read or document is broken
+     */
+    public void read(InputStream stream) throws IOException {
+        model.beginBatch();
+        try {
+            SAXParserFactory factory = SAXParserFactory.newInstance();
+            factory.setNamespaceAware(false);
+            factory.setValidating(false);
+            factory.newSAXParser().parse(new InputSource(stream), this);
+        } catch (ParserConfigurationException e) {
+            throw createIOException(e);
+        } catch (SAXException e) {
+            throw createIOException(e);
+        } finally {
+            model.endBatch();
+        }
+    }
+
+    private static IOException createIOException(Exception cause) {
+        IOException e = new IOException("can't read tasks: " + cause.getMessage());
+        e.initCause(cause);
+        return e;
+    }
+
+    public void startElement(String uri, String localName, String qName, Attributes attributes) {
+        if (SerializeSupport.TASKS.equals(qName)) {
+            tasksDepth++;
+        } else if (tasksDepth > 0 && SerializeSupport.TASK.equals(qName)) {
+            PendingTask parent = null;
+            if (!openTasks.isEmpty()) {
+                parent = openTasks.get(openTasks.size() - 1);
+                parent.create();
+            }
+
+            openTasks.add(new PendingTask(parent, attributes));
+        } else if (tasksDepth == 0 && TaskSettings.TASKS_SETTINGS_OPTIONS.equals(qName) && settings != null) {
+            readSettings(attributes);
+        }
+    }
+
+    public void endElement(String uri, String localName, String qName) {
+        if (SerializeSupport.TASKS.equals(qName)) {
+            tasksDepth--;
+        } else if (tasksDepth > 0 && SerializeSupport.TASK.equals(qName) && !openTasks.isEmpty()) {
+            openTasks.remove(openTasks.size() - 1).create();
+        }
+    }
+
+    public void characters(char ch[], int start, int length) {
+        if (!openTasks.isEmpty())
+            openTasks.get(openTasks.size() - 1).appendText(ch, start, length);
+    }
+
+    private void readSettings(Attributes attributes) {
+        settings.setEnableActualTime(ExternalizeSupport.getSafelyBoolean(
+                attributes.getValue(TaskSettings.TASKS_SETTINGS_ENABLE_ACTUAL_TIME), false));
+        settings.setAskActualWhenCompleteTask(ExternalizeSupport.getSafelyBoolean(
+                attributes.getValue(TaskSettings.TASKS_SETTINGS_ASK_ACTUAL), false));
+        settings.setEnableTasksScope(ExternalizeSupport.getSafelyBoolean(
+                attributes.getValue(TaskSettings.TASKS_SETTINGS_ENABLE_TASKS_SCOPE), false));
+        settings.setPropagatePriority(ExternalizeSupport.getSafelyBoolean(
+                attributes.getValue(TaskSettings.TASKS_SETTINGS_PROPAGATE_PRIORITY), false));
+        settings.setPriorityPropagatedOneLevelOnly(ExternalizeSupport.getSafelyBoolean(
+                attributes.getValue(TaskSettings.TASKS_SETTINGS_ONE_LEVEL_ONLY), false));
+    }
+
+    /**
+     * Task element which is being read. Old versions kept title as element text, so
+     * task is created only when its first sub task or its end is reached.
+     */
+    private class PendingTask {
+        private PendingTask parent;
+        private ITask task;
+
+        private long id;
+        private TaskPriority priority;
+        private boolean completed;
+        private boolean highlighted;
+        private TaskHighlightingType type;
+        private long estimated;
+        private long actual;
+        private long created;
+        private String title;
+        private StringBuilder text;
+
+        public PendingTask(PendingTask parent, Attributes attributes) {
+            this.parent = parent;
+
+            priority = ExternalizeSupport.getSafelyTaskPriority(
+                    attributes.getValue(SerializeSupport.TASK_PRIORITY), TaskPriority.Normal);
+            completed = ExternalizeSupport.getSafelyBoolean(
+                    attributes.getValue(SerializeSupport.TASK_COMPLETED), false);
+            highlighted = ExternalizeSupport.getSafelyBoolean(
+                    attributes.getValue(SerializeSupport.TASK_HIGHLIGHTED), false);
+            type = ExternalizeSupport.getSafelyHighlightingType(
+                    attributes.getValue(SerializeSupport.TASK_HIGHLIGHTING_TYPE), TaskHighlightingType.Red);
+            estimated = ExternalizeSupport.getSafelyLong(attributes.getValue(SerializeSupport.TASK_ESTIMATED), 0);
+            actual = ExternalizeSupport.getSafelyLong(attributes.getValue(SerializeSupport.TASK_ACTUAL), 0);
+            created = ExternalizeSupport.getSafelyLong(
+                    attributes.getValue(SerializeSupport.TASK_CREATED), System.currentTimeMillis());
+            id = ExternalizeSupport.getSafelyLong(attributes.getValue(SerializeSupport.TASK_ID), 0);
+            title = attributes.getValue(SerializeSupport.TASK_TITLE);
+        }
+
+        public void appendText(char ch[], int start, int length) {
+            if (task != null || (title != null && title.length() != 0))
+                return;
+
+            if (text == null)
+                text = new StringBuilder();
+            text.append(ch, start, length);
+        }
+
+        public void create() {
+            if (task != null)
+                return;
+
+            String taskTitle = title;
+            if (taskTitle == null || taskTitle.length() == 0)
+                taskTitle = text != null ? text.toString() : "";
+
+            task = model.addTask(id, parent != null ? parent.task : null, taskTitle, priority, estimated,
+                    actual, created, completed, highlighted);
+            model.setTaskHighlightingType(task, type);
+            text = null;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2006 Sergiy Dubovik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dubik.tasks.utils;
+
+import org.dubik.tasks.TaskSettings;
+import org.dubik.tasks.model.ITask;
+import org.dubik.tasks.model.TaskIterator;
+import org.dubik.tasks.model.TaskModelSnapshot;
+
+import java.io.*;
+
+/**
+ * Writes tasks and settings to a stream in the same format as <code>SerializeSupport</code>
+ * does, but without building a DOM tree. Every task is written as soon as it's visited.
+ *
+ * @author Sergiy Dubovik
+ * @see TaskXmlReader
+ */
+public class TaskXmlWriter {
+    private static final String INDENT = "  ";
+    // deeper elements aren't indented more, otherwise long chains of sub tasks are mostly spaces
+    private static final int MAX_INDENT_LEVEL = 64;
+
+    private Writer out;
+
+    public TaskXmlWriter(OutputStream stream) throws UnsupportedEncodingException {
+        out = new BufferedWriter(new OutputStreamWriter(stream, SerializeSupport.ENCODING));
+    }
+
+    /**
+     * Writes whole document, with the same root elements IDEA writes for the task storage.
+     *
+     * @param snapshot snapshot of the model
+     * @param settings plugin settings
+     * @throws IOException if stream can't be written
+     */
+    public void writeDocument(TaskModelSnapshot snapshot, TaskSettings settings) throws IOException {
+        out.write("<?xml version=\"1.0\" encoding=\"" + SerializeSupport.ENCODING + "\"?>\n");
+        out.write("<" + SerializeSupport.APPLICATION + ">\n");
+        out.write(INDENT + "<" + SerializeSupport.COMPONENT + " " + SerializeSupport.COMPONENT_NAME + "=\"");
+        writeEscaped(SerializeSupport.STORAGE_COMPONENT_NAME);
+        out.write("\">\n");
+        writeTasks(snapshot, 2);
+        writeSettings(settings, 2);
+        out.write(INDENT + "</" + SerializeSupport.COMPONENT + ">\n");
+        out.write("</" + SerializeSupport.APPLICATION + ">\n");
+        out.flush();
+    }
+
+    private void writeTasks(TaskModelSnapshot snapshot, int level) throws IOException {
+        writeIndent(level);
+        if (snapshot.size() == 0) {
+            out.write("<" + SerializeSupport.TASKS + " />\n");
+            return;
+        }
+
+        out.write("<" + SerializeSupport.TASKS + ">\n");
+
+        // depth of the deepest task whose element isn't closed yet
+        int openDepth = -1;
+        for (TaskIterator it = TaskIterator.preOrder(snapshot); it.hasNext();) {
+            ITask task = it.next();
+            int depth = it.getDepth();
+            for (; openDepth >= depth; openDepth--)
+                writeEndTag(level + 1 + openDepth);
+
+            if (writeStartTag(task, level + 1 + depth))
+                openDepth = depth;
+        }
+
+        for (; openDepth >= 0; openDepth--)
+            writeEndTag(level + 1 + openDepth);
+
+        writeIndent(level);
+        out.write("</" + SerializeSupport.TASKS + ">\n");
+    }
+
+    /**
+     * Writes start tag of the task or empty element if it doesn't have sub tasks.
+     *
+     * @return <code>true</code> if element must be closed after sub tasks
+     */
+    private boolean writeStartTag(ITask task, int level) throws IOException {
+        writeIndent(level);
+        out.write("<" + SerializeSupport.TASK);
+        writeAttribute(SerializeSupport.TASK_ID, Long.toString(task.getId()));
+        writeAttribute(SerializeSupport.TASK_PRIORITY, task.getPriority().name());
+        writeAttribute(SerializeSupport.TASK_COMPLETED, Boolean.toString(task.isCompleted()));
+        writeAttribute(SerializeSupport.TASK_ESTIMATED, Long.toString(task.getEstimatedTime()));
+        writeAttribute(SerializeSupport.TASK_CREATED, Long.toString(task.getCreationTime()));
+        writeAttribute(SerializeSupport.TASK_ACTUAL, Long.toString(task.getActualTime()));
+        writeAttribute(SerializeSupport.TASK_HIGHLIGHTED, Boolean.toString(task.isHighlighted()));
+        writeAttribute(SerializeSupport.TASK_HIGHLIGHTING_TYPE, task.getHighlightingType().toString());
+        writeAttribute(SerializeSupport.TASK_TITLE, task.getTitle());
+
+        if (task.size() == 0) {
+            out.write(" />\n");
+            return false;
+        }
+
+        out.write(">\n");
+        return true;
+    }
+
+    private void writeEndTag(int level) throws IOException {
+        writeIndent(level);
+        out.write("</" + SerializeSupport.TASK + ">\n");
+    }
+
+    private void writeSettings(TaskSettings settings, int level) throws IOException {
+        writeIndent(level);
+        out.write("<" + TaskSettings.TASKS_SETTINGS_OPTIONS);
+        writeAttribute(TaskSettings.TASKS_SETTINGS_ENABLE_ACTUAL_TIME, Boolean.toString(settings.isEnableActualTime()));
+        writeAttribute(TaskSettings.TASKS_SETTINGS_ASK_ACTUAL, Boolean.toString(settings.isAskActualWhenCompleteTask()));
+        writeAttribute(TaskSettings.TASKS_SETTINGS_ENABLE_TASKS_SCOPE, Boolean.toString(settings.isEnableTasksScope()));
+        writeAttribute(TaskSettings.TASKS_SETTINGS_PROPAGATE_PRIORITY, Boolean.toString(settings.isPropagatePriority()));
+        writeAttribute(TaskSettings.TASKS_SETTINGS_ONE_LEVEL_ONLY,
+                Boolean.toString(settings.isPriorityPropagatedOneLevelOnly()));
+        out.write(" />\n");
+    }
+
+    private void writeIndent(int level) throws IOException {
+        for (int i = 0; i < Math.min(level, MAX_INDENT_LEVEL); i++)
+            out.write(INDENT);
+    }
+
+    private void writeAttribute(String name, String value) throws IOException {
+        if (value == null)
+            return;
+
+        out.write(' ');
+        out.write(name);
+        out.write("=\"");
+        writeEscaped(value);
+        out.write('"');
+    }
+
+    private void writeEscaped(String value) throws IOException {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '&':
+                    out.write("&amp;");
+                    break;
+                case '<':
+                    out.write("&lt;");
+                    break;
+                case '>':
+                    out.write("&gt;");
+                    break;
+                case '"':
+                    out.write("&quot;");
+                    break;
+                case '\n':
+                    out.write("&#10;");
+                    break;
+                case '\r':
+                    out.write("&#13;");
+                    break;
+                case '\t':
+                    out.write("&#9;");
+                    break;
+                default:
+                    out.write(c);
+            }
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2006 Sergiy Dubovik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dubik.tasks;
+
+import junit.framework.TestCase;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Base of benchmarks. Benchmarks are run by <code>benchmark</code> target, not with tests, and
+ * print time and peak heap of every measured step.
+ * <p/>
+ * Peak heap is the sum of peak usages of heap pools minus heap used before the step. Benchmark
+ * target runs with small young generation, so short lived garbage adds little to it.
+ *
+ * @author Sergiy Dubovik
+ */
+public abstract class BenchmarkCase extends TestCase {
+    private static final int RUNS = Integer.getInteger("benchmark.runs", 3);
+
+    /**
+     * Runs the step several times.
+     *
+     * @param name name of the step, it's printed with results
+     * @param step measured step
+     * @return the best time and the biggest peak heap of all runs
+     * @throws Exception if step fails
+     */
+    protected Measurement measure(String name, Step step) throws Exception {
+        List<MemoryPoolMXBean> pools = new ArrayList<MemoryPoolMXBean>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP)
+                pools.add(pool);
+        }
+
+        Measurement measurement = new Measurement();
+        measurement.time = Long.MAX_VALUE;
+        for (int i = 0; i < RUNS; i++) {
+            System.gc();
+            System.gc();
+            long used = 0;
+            for (MemoryPoolMXBean pool : pools) {
+                used += pool.getUsage().getUsed();
+                pool.resetPeakUsage();
+            }
+
+            long start = System.nanoTime();
+            step.run();
+            long time = System.nanoTime() - start;
+
+            long peak = 0;
+            for (MemoryPoolMXBean pool : pools)
+                peak += pool.getPeakUsage().getUsed();
+
+            measurement.time = Math.min(measurement.time, time);
+            measurement.heap = Math.max(measurement.heap, peak - used);
+        }
+
+        System.out.println(getClass().getSimpleName() + ": " + name + ": " + measurement);
+        return measurement;
+    }
+
+    /**
+     * Step of a benchmark.
+     */
+    protected interface Step {
+        void run() throws Exception;
+    }
+
+    /**
+     * Results of a step.
+     */
+    protected static class Measurement {
+        private long time;
+        private long heap;
+
+        /**
+         * Returns the best time of all runs.
+         *
+         * @return time in nanoseconds
+         */
+        public long getTime() {
+            return time;
+        }
+
+        /**
+         * Returns the biggest growth of heap of all runs.
+         *
+         * @return heap in bytes
+         */
+        public long getHeap() {
+            return heap;
+        }
+
+        public String toString() {
+            return (time / 1000000) + " ms, peak heap " + (heap / (1024 * 1024)) + " MB";
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2006 Sergiy Dubovik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dubik.tasks;
+
+import junit.framework.TestCase;
+import org.dubik.tasks.model.ITask;
+import org.dubik.tasks.model.ITaskModel;
+import org.dubik.tasks.model.TaskIterator;
+import org.dubik.tasks.model.TaskPriority;
+import org.dubik.tasks.model.impl.TaskModel;
+import org.dubik.tasks.utils.SerializeSupport;
+import org.jdom.Element;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Checks that tasks of older releases are loaded once and moved to task files once.
+ *
+ * @author Sergiy Dubovik
+ */
+public class NamedTaskStorageTest extends TestCase {
+    private static final int TASK_COUNT = 1000;
+
+    private File directory;
+
+    protected void setUp() throws Exception {
+        directory = File.createTempFile("tasks", "");
+        assertTrue(directory.delete() && directory.mkdir());
+    }
+
+    protected void tearDown() throws Exception {
+        File[] files = directory.listFiles();
+        for (int i = 0; files != null && i < files.length; i++)
+            files[i].delete();
+        directory.delete();
+    }
+
+    public void testXmlAndLegacyTasksAreLoadedOnce() throws Exception {
+        TasksApplicationComponent tasksApplication = new TasksApplicationComponent();
+        tasksApplication.readExternal(createElement(TASK_COUNT, false));
+        NamedTaskStorage storage = new NamedTaskStorage(tasksApplication, directory);
+        storage.readExternal(createElement(TASK_COUNT, false));
+
+        // nothing is parsed at startup
+        assertFalse(storage.isLoaded());
+        assertEquals(0, tasksApplication.getTaskModel().size());
+
+        storage.ensureLoaded();
+        assertTrue(storage.isLoaded());
+        assertTrue(storage.getLoadTime() > 0);
+        assertTasks(tasksApplication.getTaskModel(), TASK_COUNT);
+        storage.disposeComponent();
+    }
+
+    public void testTasksAreMigratedOnce() throws Exception {
+        Element legacyElement = createElement(TASK_COUNT, false);
+        TasksApplicationComponent tasksApplication = new TasksApplicationComponent();
+        tasksApplication.readExternal(legacyElement);
+        NamedTaskStorage storage = new NamedTaskStorage(tasksApplication, directory);
+
+        Element element = new Element("component");
+        storage.writeExternal(element);
+        assertFalse(SerializeSupport.hasTasks(element));
+        assertTrue(new File(directory, "tasks.dat").isFile());
+        storage.disposeComponent();
+
+        // old tasks are still there, but they are migrated already
+        tasksApplication = new TasksApplicationComponent();
+        tasksApplication.readExternal(legacyElement);
+        storage = new NamedTaskStorage(tasksApplication, directory);
+        storage.readExternal(element);
+        storage.ensureLoaded();
+        assertTasks(tasksApplication.getTaskModel(), TASK_COUNT);
+
+        element = new Element("component");
+        storage.writeExternal(element);
+        assertFalse(SerializeSupport.hasTasks(element));
+        storage.disposeComponent();
+    }
+
+    public void testTasksStayInXmlIfTaskFilesCantBeWritten() throws Exception {
+        // task files can't be created in a file
+        File file = new File(directory, "file");
+        assertTrue(file.createNewFile());
+
+        TasksApplicationComponent tasksApplication = new TasksApplicationComponent();
+        NamedTaskStorage storage = new NamedTaskStorage(tasksApplication, file);
+        storage.readExternal(createElement(TASK_COUNT, false));
+
+        Element element = new Element("component");
+        storage.writeExternal(element);
+        assertTrue(SerializeSupport.hasTasks(element));
+        storage.disposeComponent();
+
+        TaskModel model = new TaskModel();
+        SerializeSupport.readExternal(model, null, element);
+        assertTasks(model, TASK_COUNT);
+    }
+
+    public void testOwnSettingsReplaceLegacyOnes() throws Exception {
+        TasksApplicationComponent tasksApplication = new TasksApplicationComponent();
+        tasksApplication.readExternal(createElement(1, true));
+        NamedTaskStorage storage = new NamedTaskStorage(tasksApplication, directory);
+        assertTrue(tasksApplication.getSettings().isEnableActualTime());
+
+        storage.readExternal(createElement(1, false));
+        storage.ensureLoaded();
+        assertFalse(tasksApplication.getSettings().isEnableActualTime());
+        storage.disposeComponent();
+    }
+
+    /**
+     * Creates plugin data with tasks, every third task is a sub task of the previous one.
+     */
+    private static Element createElement(int count, boolean enableActualTime) throws Exception {
+        TaskModel model = new TaskModel();
+        ITask task = null;
+        for (int i = 0; i < count; i++) {
+            ITask parent = i % 3 == 0 ? task : null;
+            task = model.addTask(parent, "task " + i, TaskPriority.Normal, i, 0, i, false, false);
+        }
+
+        TaskSettings settings = new TaskSettings();
+        settings.setEnableActualTime(enableActualTime);
+        Element element = new Element("component");
+        SerializeSupport.writeExternal(model, settings, element);
+
+        return element;
+    }
+
+    private static void assertTasks(ITaskModel model, int count) {
+        Set<Long> ids = new HashSet<Long>();
+        for (ITask task : TaskIterator.tasksOf(model))
+            assertTrue("task is loaded twice: " + task, ids.add(task.getId()));
+        assertEquals(count, ids.size());
+    }
+}
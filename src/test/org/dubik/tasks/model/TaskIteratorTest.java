@@ -0,0 +1,166 @@
+/*
+ * Copyright 2006 Sergiy Dubovik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dubik.tasks.model;
+
+import junit.framework.TestCase;
+import org.dubik.tasks.model.impl.Task;
+import org.dubik.tasks.model.impl.TaskModel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares iterators with recursive walks and checks that deep hierarchies don't need deep stack.
+ *
+ * @author Sergiy Dubovik
+ */
+public class TaskIteratorTest extends TestCase {
+    private static final int DEPTH = 100000;
+
+    public void testRandomForests() {
+        Random random = new Random(1);
+        for (int round = 0; round < 200; round++) {
+            TaskModel model = new TaskModel();
+            model.setCheckAggregates(true);
+            List<ITask> tasks = new ArrayList<ITask>();
+            int count = random.nextInt(60);
+            for (int i = 0; i < count; i++) {
+                ITask parent = tasks.isEmpty() || random.nextInt(3) == 0 ?
+                        null : tasks.get(random.nextInt(tasks.size()));
+                tasks.add(model.addTask(parent, "t" + i, TaskPriority.Normal, i, 0, i, false, false));
+            }
+
+            List<String> expected = new ArrayList<String>();
+            for (int i = 0; i < model.size(); i++)
+                preOrder(model.getTask(i), 0, expected);
+            assertEquals(expected, walk(TaskIterator.preOrder(model)));
+            assertEquals(expected, walk(TaskIterator.preOrder(model.snapshot())));
+
+            for (ITask task : tasks) {
+                expected = new ArrayList<String>();
+                preOrder(task, 0, expected);
+                assertEquals(expected, walk(TaskIterator.preOrder(task)));
+
+                expected = new ArrayList<String>();
+                postOrder(task, 0, expected);
+                assertEquals(expected, walk(TaskIterator.postOrder(task)));
+            }
+
+            expected = new ArrayList<String>();
+            for (int i = 0; i < model.size(); i++)
+                skippingOrder(model.getTask(i), expected);
+            List<String> skipped = new ArrayList<String>();
+            for (TaskIterator it = TaskIterator.preOrder(model); it.hasNext();) {
+                ITask task = it.next();
+                skipped.add(task.getTitle());
+                if (isSkipped(task))
+                    it.skipSubTasks();
+            }
+            assertEquals(expected, skipped);
+        }
+    }
+
+    public void testDeepSnapshot() {
+        TaskSnapshot chain = null;
+        for (int i = DEPTH; i >= 0; i--) {
+            List<TaskSnapshot> subTasks = new ArrayList<TaskSnapshot>();
+            if (chain != null)
+                subTasks.add(chain);
+            chain = new TaskSnapshot(new Task("c" + i), subTasks);
+        }
+
+        int count = 0;
+        int maxDepth = 0;
+        for (TaskIterator it = TaskIterator.preOrder(chain); it.hasNext(); count++) {
+            assertEquals("c" + count, it.next().getTitle());
+            maxDepth = Math.max(maxDepth, it.getDepth());
+        }
+        assertEquals(DEPTH + 1, count);
+        assertEquals(DEPTH, maxDepth);
+
+        count = 0;
+        for (TaskIterator it = TaskIterator.postOrder(chain); it.hasNext(); count++) {
+            assertEquals("c" + (DEPTH - count), it.next().getTitle());
+            assertEquals(DEPTH - count, it.getDepth());
+        }
+        assertEquals(DEPTH + 1, count);
+    }
+
+    public void testDeepModel() {
+        TaskModel model = new TaskModel();
+        ITask task = null;
+        model.beginBatch();
+        for (int i = 0; i < DEPTH; i++)
+            task = model.addTask(task, "d" + i, TaskPriority.Normal, 1, 0, i, i % 5 == 0, false);
+        model.endBatch();
+
+        ITask root = model.getTask(0);
+        assertEquals(1, root.getEstimatedTime());
+        assertEquals(DEPTH - 1, countDescendants(root));
+
+        model.setCheckAggregates(true);
+        model.updateActualTime(task, 5);
+        assertEquals(5, root.getActualTime());
+
+        model.deleteTask(root);
+        assertEquals(0, model.size());
+        assertNull(model.findTask(task.getId()));
+    }
+
+    private static int countDescendants(ITask task) {
+        int count = 0;
+        for (ITask ignored : TaskIterator.descendantsOf(task))
+            count++;
+
+        return count;
+    }
+
+    private static List<String> walk(TaskIterator it) {
+        List<String> titles = new ArrayList<String>();
+        while (it.hasNext()) {
+            ITask task = it.next();
+            titles.add(task.getTitle() + "@" + it.getDepth());
+        }
+
+        return titles;
+    }
+
+    private static void preOrder(ITask task, int depth, List<String> titles) {
+        titles.add(task.getTitle() + "@" + depth);
+        for (int i = 0; i < task.size(); i++)
+            preOrder(task.get(i), depth + 1, titles);
+    }
+
+    private static void postOrder(ITask task, int depth, List<String> titles) {
+        for (int i = 0; i < task.size(); i++)
+            postOrder(task.get(i), depth + 1, titles);
+        titles.add(task.getTitle() + "@" + depth);
+    }
+
+    private static void skippingOrder(ITask task, List<String> titles) {
+        titles.add(task.getTitle());
+        if (isSkipped(task))
+            return;
+
+        for (int i = 0; i < task.size(); i++)
+            skippingOrder(task.get(i), titles);
+    }
+
+    private static boolean isSkipped(ITask task) {
+        return Integer.parseInt(task.getTitle().substring(1)) % 3 == 0;
+    }
+}
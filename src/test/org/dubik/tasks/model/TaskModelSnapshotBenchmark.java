@@ -0,0 +1,164 @@
+/*
+ * Copyright 2006 Sergiy Dubovik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dubik.tasks.model;
+
+import org.dubik.tasks.BenchmarkCase;
+import org.dubik.tasks.model.impl.TaskModel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.*;
+
+/**
+ * Compares sequential and parallel aggregation of a snapshot with a million tasks. Parallel
+ * aggregation walks parts of {@link TaskModelSnapshot#split} in one thread per processor.
+ *
+ * @author Sergiy Dubovik
+ */
+public class TaskModelSnapshotBenchmark extends BenchmarkCase {
+    private static final int TASK_COUNT = Integer.getInteger("benchmark.tasks", 1000000);
+    // parts per thread, so a thread which got big top level tasks doesn't hold up others
+    private static final int PARTS_PER_THREAD = 4;
+
+    public void testAggregation() throws Exception {
+        final TaskModelSnapshot snapshot = createModel(TASK_COUNT).snapshot();
+        final int threads = Runtime.getRuntime().availableProcessors();
+
+        final Totals[] sequential = new Totals[1];
+        Measurement sequentialMeasurement = measure("sequential aggregation of " + TASK_COUNT + " tasks",
+                new Step() {
+                    public void run() throws Exception {
+                        sequential[0] = aggregate(snapshot);
+                    }
+                });
+
+        final Totals[] parallel = new Totals[1];
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            Measurement parallelMeasurement = measure("parallel aggregation of " + TASK_COUNT + " tasks in " +
+                    threads + " threads", new Step() {
+                public void run() throws Exception {
+                    parallel[0] = aggregate(snapshot, executor, threads * PARTS_PER_THREAD);
+                }
+            });
+
+            System.out.println(threads + " threads: speedup " + (parallelMeasurement.getTime() == 0 ? 0 :
+                    sequentialMeasurement.getTime() * 100 / parallelMeasurement.getTime()) + "%");
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(TASK_COUNT, sequential[0].count);
+        assertEquals(sequential[0], parallel[0]);
+    }
+
+    private static Totals aggregate(TaskModelSnapshot snapshot, ExecutorService executor, int parts)
+            throws Exception {
+        List<Callable<Totals>> jobs = new ArrayList<Callable<Totals>>();
+        for (final TaskModelSnapshot part : snapshot.split(parts)) {
+            jobs.add(new Callable<Totals>() {
+                public Totals call() throws Exception {
+                    return aggregate(part);
+                }
+            });
+        }
+
+        Totals totals = new Totals();
+        for (Future<Totals> part : executor.invokeAll(jobs))
+            totals.add(part.get());
+
+        return totals;
+    }
+
+    /**
+     * Sums what a report of open tasks would show.
+     */
+    private static Totals aggregate(TaskModelSnapshot snapshot) {
+        Totals totals = new Totals();
+        for (ITask task : snapshot.tasks()) {
+            totals.count++;
+            if (task.isCompleted())
+                continue;
+
+            totals.open++;
+            totals.estimatedTime += task.getEstimatedTime();
+            totals.actualTime += task.getActualTime();
+            if (task.getPriority() == TaskPriority.Important)
+                totals.important++;
+            if (task.getTitle().indexOf("7") != -1)
+                totals.found++;
+        }
+
+        return totals;
+    }
+
+    /**
+     * Creates model where every fourth task is a top level one, others are sub tasks of random tasks.
+     */
+    private static TaskModel createModel(int count) {
+        Random random = new Random(1);
+        TaskModel model = new TaskModel();
+        List<ITask> tasks = new ArrayList<ITask>(count);
+        TaskPriority[] priorities = TaskPriority.values();
+        model.beginBatch();
+        for (int i = 0; i < count; i++) {
+            ITask parent = tasks.isEmpty() || i % 4 == 0 ? null : tasks.get(random.nextInt(tasks.size()));
+            tasks.add(model.addTask(parent, "task " + i, priorities[i % priorities.length], random.nextInt(100),
+                    random.nextInt(100), i, i % 3 == 0, false));
+        }
+        model.endBatch();
+
+        return model;
+    }
+
+    private static class Totals {
+        private int count;
+        private int open;
+        private int important;
+        private int found;
+        private long estimatedTime;
+        private long actualTime;
+
+        private void add(Totals totals) {
+            count += totals.count;
+            open += totals.open;
+            important += totals.important;
+            found += totals.found;
+            estimatedTime += totals.estimatedTime;
+            actualTime += totals.actualTime;
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof Totals))
+                return false;
+
+            Totals totals = (Totals) o;
+            return count == totals.count && open == totals.open && important == totals.important &&
+                    found == totals.found && estimatedTime == totals.estimatedTime &&
+                    actualTime == totals.actualTime;
+        }
+
+        public int hashCode() {
+            return count;
+        }
+
+        public String toString() {
+            return count + " tasks, " + open + " open, " + important + " important, " + found + " found, " +
+                    estimatedTime + " estimated, " + actualTime + " actual";
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2006 Sergiy Dubovik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dubik.tasks.model;
+
+import junit.framework.TestCase;
+import org.dubik.tasks.model.impl.TaskModel;
+
+import java.util.*;
+
+/**
+ * Checks that parts of a split snapshot cover every task exactly once and keep the order of tasks.
+ *
+ * @author Sergiy Dubovik
+ */
+public class TaskModelSnapshotTest extends TestCase {
+    private static final int[] PARTS = {1, 2, 3, 4, 7, 16, 100, 1000};
+
+    public void testRandomForests() {
+        Random random = new Random(1);
+        for (int round = 0; round < 100; round++) {
+            TaskModel model = new TaskModel();
+            List<ITask> tasks = new ArrayList<ITask>();
+            int count = random.nextInt(500);
+            for (int i = 0; i < count; i++) {
+                ITask parent = tasks.isEmpty() || random.nextInt(3) == 0 ?
+                        null : tasks.get(random.nextInt(tasks.size()));
+                tasks.add(model.addTask(parent, "t" + i, TaskPriority.Normal, i, 0, i, false, false));
+            }
+
+            TaskModelSnapshot snapshot = model.snapshot();
+            assertEquals(count, snapshot.getTaskCount());
+            for (int parts : PARTS)
+                assertSplit(snapshot, parts);
+        }
+    }
+
+    public void testBigTopLevelTask() {
+        TaskModel model = new TaskModel();
+        model.addTask(null, "small", TaskPriority.Normal, 1, 0, 0, false, false);
+        ITask big = model.addTask(null, "big", TaskPriority.Normal, 1, 0, 0, false, false);
+        for (int i = 0; i < 1000; i++)
+            model.addTask(big, "sub " + i, TaskPriority.Normal, 1, 0, i, false, false);
+        for (int i = 0; i < 10; i++)
+            model.addTask(null, "small " + i, TaskPriority.Normal, 1, 0, i, false, false);
+
+        TaskModelSnapshot snapshot = model.snapshot();
+        for (int parts : PARTS)
+            assertSplit(snapshot, parts);
+
+        // big task ends the first part, small tasks after it still get the remaining parts
+        List<TaskModelSnapshot> split = snapshot.split(4);
+        assertEquals(4, split.size());
+        assertEquals(2, split.get(0).size());
+        assertEquals("big", split.get(0).getTask(1).getTitle());
+    }
+
+    public void testEmptySnapshot() {
+        TaskModelSnapshot snapshot = new TaskModel().snapshot();
+        for (int parts : PARTS)
+            assertTrue(snapshot.split(parts).isEmpty());
+    }
+
+    private static void assertSplit(TaskModelSnapshot snapshot, int parts) {
+        List<TaskModelSnapshot> split = snapshot.split(parts);
+        assertTrue(split.size() <= parts);
+        assertTrue(split.size() <= snapshot.size());
+
+        int biggestTopLevelTask = 0;
+        for (int i = 0; i < snapshot.size(); i++)
+            biggestTopLevelTask = Math.max(biggestTopLevelTask, snapshot.getTask(i).getTaskCount());
+
+        List<ITask> topLevelTasks = new ArrayList<ITask>();
+        List<ITask> tasks = new ArrayList<ITask>();
+        Map<ITask, Boolean> seen = new IdentityHashMap<ITask, Boolean>();
+        for (TaskModelSnapshot part : split) {
+            assertTrue(part.size() > 0);
+            // parts are about the same, only a big top level task can make one bigger than its share
+            assertTrue(part.getTaskCount() <= snapshot.getTaskCount() / parts + 1 + biggestTopLevelTask);
+            for (int i = 0; i < part.size(); i++)
+                topLevelTasks.add(part.getTask(i));
+
+            int count = 0;
+            for (ITask task : part.tasks()) {
+                assertNull("task is in two parts: " + task, seen.put(task, Boolean.TRUE));
+                tasks.add(task);
+                count++;
+            }
+            assertEquals(part.getTaskCount(), count);
+        }
+
+        List<ITask> expectedTopLevelTasks = new ArrayList<ITask>();
+        for (int i = 0; i < snapshot.size(); i++)
+            expectedTopLevelTasks.add(snapshot.getTask(i));
+        assertEquals(expectedTopLevelTasks, topLevelTasks);
+
+        List<ITask> expectedTasks = new ArrayList<ITask>();
+        for (ITask task : snapshot.tasks())
+            expectedTasks.add(task);
+        assertEquals(expectedTasks, tasks);
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2006 Sergiy Dubovik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dubik.tasks.model.impl;
+
+import junit.framework.TestCase;
+import org.dubik.tasks.model.ITask;
+import org.dubik.tasks.model.TaskPriority;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks that aggregates rolled up along parents stay equal to the ones calculated from scratch.
+ *
+ * @author Sergiy Dubovik
+ */
+public class TaskAggregatesTest extends TestCase {
+    private TaskModel model;
+
+    protected void setUp() throws Exception {
+        model = new TaskModel();
+        model.setCheckAggregates(true);
+    }
+
+    public void testSumsOfSubTasks() {
+        ITask parent = model.addTask(null, "parent", TaskPriority.Questionable, 0, 0, false, false);
+        ITask first = model.addTask(parent, "first", TaskPriority.Normal, 3, 1, 0, false, false);
+        ITask second = model.addTask(parent, "second", TaskPriority.Important, 4, 2, 0, false, false);
+
+        assertEquals(7, parent.getEstimatedTime());
+        assertEquals(3, parent.getActualTime());
+        assertEquals(TaskPriority.Important, parent.getHighestPriority(true));
+        assertFalse(parent.isCompleted());
+
+        model.completeTask(first);
+        assertEquals(1, parent.getCompletedSubTasksCount());
+        assertEquals(50, parent.getCompletionRatio());
+
+        model.completeTask(second);
+        assertTrue(parent.isCompleted());
+        assertEquals(100, parent.getCompletionRatio());
+
+        model.deleteTask(second);
+        assertEquals(3, parent.getEstimatedTime());
+        assertEquals(TaskPriority.Normal, parent.getHighestPriority(true));
+    }
+
+    public void testChangeIsRolledUpToRoot() {
+        ITask task = model.addTask(null, "root", TaskPriority.Normal, 0, 0, false, false);
+        ITask root = task;
+        for (int i = 0; i < 100; i++)
+            task = model.addTask(task, "level " + i, TaskPriority.Normal, 0, 0, false, false);
+
+        model.updateActualTime(task, 5);
+        assertEquals(5, root.getActualTime());
+
+        model.updateTask(task, task.getParent(), "leaf", TaskPriority.Important, 8);
+        assertEquals(8, root.getEstimatedTime());
+        assertEquals(TaskPriority.Important, root.getHighestPriority(false));
+        assertEquals(TaskPriority.Normal, root.getHighestPriority(true));
+
+        model.completeTask(task);
+        assertTrue(root.isCompleted());
+        assertEquals(1, ((Task) root).getCompletedLeavesCount());
+    }
+
+    public void testWideParentInBatch() {
+        model.setCheckAggregates(false);
+        ITask parent = model.addTask(null, "parent", TaskPriority.Normal, 0, 0, false, false);
+        model.beginBatch();
+        for (int i = 0; i < 100000; i++)
+            model.addTask(i + 1, parent, "task " + i, TaskPriority.Normal, 1, 0, 0, i % 2 == 0, false);
+        model.endBatch();
+
+        assertEquals(100000, parent.getEstimatedTime());
+        assertEquals(50000, parent.getCompletedSubTasksCount());
+        assertEquals(50, parent.getCompletionRatio());
+        ((Task) parent).checkAggregates();
+    }
+
+    public void testDeepChainInBatch() {
+        model.setCheckAggregates(false);
+        ITask root = model.addTask(null, "root", TaskPriority.Normal, 0, 0, false, false);
+        ITask task = root;
+        model.beginBatch();
+        for (int i = 0; i < 100000; i++)
+            task = model.addTask(i + 1, task, "level " + i, TaskPriority.Normal, 1, 0, 0, false, false);
+        model.endBatch();
+
+        assertEquals(1, root.getEstimatedTime());
+        assertEquals(0, ((Task) root).getCompletedLeavesCount());
+        ((Task) root).checkAggregates();
+    }
+
+    public void testBatchWithMovedAndDeletedTasks() {
+        ITask first = model.addTask(null, "first", TaskPriority.Normal, 0, 0, false, false);
+        ITask second = model.addTask(null, "second", TaskPriority.Normal, 0, 0, false, false);
+        ITask moved = model.addTask(first, "moved", TaskPriority.Normal, 0, 0, false, false);
+        ITask deleted = model.addTask(first, "deleted", TaskPriority.Normal, 0, 0, false, false);
+
+        model.beginBatch();
+        model.addTask(100, moved, "sub", TaskPriority.Important, 5, 2, 0, true, false);
+        model.addTask(101, deleted, "sub", TaskPriority.Normal, 7, 0, 0, false, false);
+        model.updateTask(moved, second, moved.getTitle(), moved.getPriority(), 0);
+        model.deleteTask(deleted);
+        model.addTask(102, moved, "another", TaskPriority.Normal, 3, 0, 0, false, false);
+        model.endBatch();
+
+        assertEquals(0, first.getEstimatedTime());
+        assertEquals(8, second.getEstimatedTime());
+        assertEquals(2, second.getActualTime());
+        assertEquals(TaskPriority.Important, second.getHighestPriority(false));
+        assertEquals(50, moved.getCompletionRatio());
+        ((Task) first).checkAggregates();
+        ((Task) second).checkAggregates();
+    }
+
+    public void testRandomChanges() {
+        Random random = new Random(1);
+        List<ITask> tasks = new ArrayList<ITask>();
+        TaskPriority[] priorities = TaskPriority.values();
+        for (int i = 0; i < 2000; i++) {
+            ITask task = tasks.isEmpty() ? null : tasks.get(random.nextInt(tasks.size()));
+            switch (random.nextInt(8)) {
+                case 0:
+                case 1:
+                case 2:
+                    ITask parent = random.nextInt(5) == 0 ? null : task;
+                    tasks.add(model.addTask(parent, "task " + i, priorities[random.nextInt(priorities.length)],
+                            random.nextInt(10), random.nextInt(10), 0, random.nextBoolean(), false));
+                    break;
+                case 3:
+                    if (task != null) {
+                        model.deleteTask(task);
+                        removeSubtree(tasks, task);
+                    }
+                    break;
+                case 4:
+                    if (task != null) {
+                        if (task.isCompleted())
+                            model.uncompleteTask(task);
+                        else
+                            model.completeTask(task);
+                    }
+                    break;
+                case 5:
+                    if (task != null)
+                        model.updateActualTime(task, random.nextInt(10));
+                    break;
+                case 6:
+                    if (task != null) {
+                        ITask newParent = tasks.get(random.nextInt(tasks.size()));
+                        if (isInside(newParent, task))
+                            newParent = null;
+                        model.updateTask(task, newParent, task.getTitle(),
+                                priorities[random.nextInt(priorities.length)], random.nextInt(10));
+                    }
+                    break;
+                case 7:
+                    if (task != null && random.nextBoolean())
+                        model.moveUp(task);
+                    else if (task != null)
+                        model.moveDown(task);
+                    break;
+            }
+        }
+
+        for (int i = 0; i < model.size(); i++)
+            ((Task) model.getTask(i)).checkAggregates();
+    }
+
+    private static void removeSubtree(List<ITask> tasks, ITask task) {
+        for (int i = tasks.size() - 1; i >= 0; i--) {
+            if (isInside(tasks.get(i), task))
+                tasks.remove(i);
+        }
+    }
+
+    private static boolean isInside(ITask task, ITask parent) {
+        for (ITask t = task; t != null; t = t.getParent()) {
+            if (t == parent)
+                return true;
+        }
+
+        return false;
+    }
+}
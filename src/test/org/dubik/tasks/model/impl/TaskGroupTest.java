@@ -0,0 +1,79 @@
+/*
+ * Copyright 2006 Sergiy Dubovik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dubik.tasks.model.impl;
+
+import junit.framework.TestCase;
+import org.dubik.tasks.model.ITask;
+import org.dubik.tasks.model.ITaskFilter;
+import org.dubik.tasks.model.TaskPriority;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Checks that positions of group members follow changes of the model.
+ *
+ * @author Sergiy Dubovik
+ */
+public class TaskGroupTest extends TestCase {
+    private TaskModel model;
+    private TaskGroup group;
+
+    protected void setUp() throws Exception {
+        model = new TaskModel();
+        group = new TaskGroup("Important");
+        group.setTaskFilter(new ITaskFilter() {
+            public boolean accept(@NotNull ITask task) {
+                return task.getPriority() == TaskPriority.Important;
+            }
+        });
+        group.setTaskModel(model);
+        model.addChangeListener(group);
+    }
+
+    public void testIndexesFollowChanges() {
+        for (int i = 0; i < 10; i++) {
+            TaskPriority priority = i % 2 == 0 ? TaskPriority.Important : TaskPriority.Normal;
+            model.addTask(null, "task " + i, priority, 0, 0, false, false);
+        }
+        checkIndexes();
+
+        model.addTask(null, "appended", TaskPriority.Important, 0, 0, false, false);
+        checkIndexes();
+
+        model.deleteTask(model.getTask(2));
+        checkIndexes();
+
+        ITask normal = model.getTask(1);
+        model.updateTask(normal, null, normal.getTitle(), TaskPriority.Important, 0);
+        checkIndexes();
+
+        assertEquals(-1, group.indexOf(new Task("not in the model")));
+    }
+
+    private void checkIndexes() {
+        int expected = 0;
+        for (int i = 0; i < model.size(); i++) {
+            ITask task = model.getTask(i);
+            if (task.getPriority() == TaskPriority.Important) {
+                assertSame(task, group.get(expected));
+                assertEquals(expected, group.indexOf(task));
+                expected++;
+            } else {
+                assertEquals(-1, group.indexOf(task));
+            }
+        }
+        assertEquals(expected, group.size());
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2006 Sergiy Dubovik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dubik.tasks.model.impl;
+
+import junit.framework.TestCase;
+import org.dubik.tasks.model.ITask;
+import org.dubik.tasks.model.ITaskModelChangeListener;
+import org.dubik.tasks.model.TaskBatchEvent;
+import org.dubik.tasks.model.TaskChangeEvent;
+import org.dubik.tasks.model.TaskPriority;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks details carried by change events of the model.
+ *
+ * @author Sergiy Dubovik
+ */
+public class TaskModelEventsTest extends TestCase {
+    private TaskModel model;
+    private List<TaskChangeEvent> changes = new ArrayList<TaskChangeEvent>();
+
+    protected void setUp() throws Exception {
+        model = new TaskModel();
+        model.addChangeListener(new ITaskModelChangeListener() {
+            public void handleAddTaskEvent(TaskChangeEvent event) {
+            }
+
+            public void handlePreDeleteTaskEvent(TaskChangeEvent event) {
+            }
+
+            public void handleDeleteTaskEvent(TaskChangeEvent event) {
+            }
+
+            public void handlePreChangeTaskEvent(TaskChangeEvent event) {
+            }
+
+            public void handleChangeTaskEvent(TaskChangeEvent event) {
+                changes.add(event);
+            }
+
+            public void handleBatchEvent(TaskBatchEvent event) {
+            }
+        });
+    }
+
+    public void testOwnEstimatedTimeOfParentIsCompared() {
+        ITask parent = model.addTask(null, "parent", TaskPriority.Normal, 2, 0, false, false);
+        model.addTask(parent, "sub", TaskPriority.Normal, 5, 0, 0, false, false);
+
+        model.updateTask(parent, null, "renamed", TaskPriority.Normal, 2);
+        assertEquals(1, changes.size());
+        assertTrue(changes.get(0).isChanged(TaskChangeEvent.TITLE));
+        assertFalse(changes.get(0).isChanged(TaskChangeEvent.TIMES));
+
+        model.updateTask(parent, null, "renamed", TaskPriority.Normal, 3);
+        assertTrue(changes.get(1).isChanged(TaskChangeEvent.TIMES));
+    }
+
+    public void testMoveReportsIndexes() {
+        ITask first = model.addTask(null, "first", TaskPriority.Normal, 0, 0, false, false);
+        ITask second = model.addTask(null, "second", TaskPriority.Normal, 0, 0, false, false);
+        model.addTask(second, "sub", TaskPriority.Normal, 0, 0, 0, false, false);
+
+        model.updateTask(first, second, "first", TaskPriority.Normal, 0);
+        TaskChangeEvent event = changes.get(0);
+        assertTrue(event.isMoved());
+        assertNull(event.getOldParent());
+        assertEquals(0, event.getOldIndex());
+        assertSame(second, event.getParent());
+        assertEquals(1, event.getNewIndex());
+    }
+}
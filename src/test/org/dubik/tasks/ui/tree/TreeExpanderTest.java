@@ -0,0 +1,122 @@
+/*
+ * Copyright 2006 Sergiy Dubovik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dubik.tasks.ui.tree;
+
+import junit.framework.TestCase;
+import org.dubik.tasks.model.ITask;
+import org.dubik.tasks.model.TaskPriority;
+import org.dubik.tasks.model.impl.TaskModel;
+
+import javax.swing.*;
+import javax.swing.tree.TreePath;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks expansion in slices, slice time is 0, so every slice expands one path.
+ *
+ * @author Sergiy Dubovik
+ */
+public class TreeExpanderTest extends TestCase {
+    private TaskModel model;
+    private TaskTreeModel treeModel;
+    private JTree tree;
+    private TreeExpander expander;
+    private List<TreePath> paths;
+
+    protected void setUp() throws Exception {
+        onEDT(new Runnable() {
+            public void run() {
+                model = new TaskModel();
+                for (int i = 0; i < 10; i++) {
+                    ITask task = model.addTask(null, "task " + i, TaskPriority.Normal, 0, 0, false, false);
+                    for (int j = 0; j < 3; j++)
+                        model.addTask(task, "sub task " + j, TaskPriority.Normal, 0, 0, false, false);
+                }
+
+                treeModel = new TaskTreeModel(model);
+                tree = new JTree(treeModel);
+                expander = new TreeExpander(tree);
+                expander.setSliceTime(0);
+
+                paths = new ArrayList<TreePath>();
+                TreePath rootPath = new TreePath(treeModel.getRoot());
+                paths.add(rootPath);
+                for (int i = 0; i < model.size(); i++)
+                    paths.add(rootPath.pathByAddingChild(model.getTask(i)));
+            }
+        });
+    }
+
+    protected void tearDown() throws Exception {
+        treeModel.dispose();
+    }
+
+    public void testExpandsInSlices() throws Exception {
+        onEDT(new Runnable() {
+            public void run() {
+                expander.expand(paths);
+                assertTrue(expander.isExpanding());
+            }
+        });
+        waitForExpander();
+
+        for (TreePath path : paths)
+            assertTrue(path.toString(), tree.isExpanded(path));
+    }
+
+    public void testRemovedTaskIsNotExpanded() throws Exception {
+        final ITask removed = model.getTask(model.size() - 1);
+        final TreePath removedPath = paths.get(paths.size() - 1);
+        onEDT(new Runnable() {
+            public void run() {
+                expander.expand(paths);
+                model.deleteTask(removed);
+            }
+        });
+        waitForExpander();
+
+        assertFalse(tree.isExpanded(removedPath));
+        assertEquals(-1, treeModel.getIndexOfChild(treeModel.getRoot(), removed));
+    }
+
+    public void testCollapsedPathCancelsSubPaths() throws Exception {
+        onEDT(new Runnable() {
+            public void run() {
+                expander.expand(paths);
+                tree.collapsePath(paths.get(0));
+                assertFalse(expander.isExpanding());
+            }
+        });
+
+        assertFalse(tree.isExpanded(paths.get(1)));
+    }
+
+    private void waitForExpander() throws Exception {
+        final boolean[] expanding = {true};
+        while (expanding[0]) {
+            onEDT(new Runnable() {
+                public void run() {
+                    expanding[0] = expander.isExpanding();
+                }
+            });
+        }
+    }
+
+    private static void onEDT(Runnable runnable) throws Exception {
+        SwingUtilities.invokeAndWait(runnable);
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2006 Sergiy Dubovik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dubik.tasks.utils;
+
+import org.dubik.tasks.BenchmarkCase;
+import org.dubik.tasks.TaskSettings;
+import org.dubik.tasks.model.impl.TaskModel;
+import org.jdom.Element;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures how decoding of tasks.xml elements scales with amount of threads, from one thread
+ * up to the amount of processors, but at least up to four threads.
+ *
+ * @author Sergiy Dubovik
+ */
+public class TaskElementReaderBenchmark extends BenchmarkCase {
+    private static final int TASK_COUNT = Integer.getInteger("benchmark.tasks", 100000);
+
+    public void testScaling() throws Exception {
+        TaskModel model = TaskXmlBenchmark.createModel(TASK_COUNT);
+        Element root = new Element(SerializeSupport.COMPONENT);
+        SerializeSupport.writeExternal(model, new TaskSettings(), root);
+        final List elements = root.getChild(SerializeSupport.TASKS).getChildren();
+        String expected = TaskXmlBenchmark.dump(model);
+        model = null;
+
+        int processors = Runtime.getRuntime().availableProcessors();
+        List<Integer> threadCounts = new ArrayList<Integer>();
+        for (int threads = 1; threads < Math.max(processors, 4); threads *= 2)
+            threadCounts.add(threads);
+        threadCounts.add(Math.max(processors, 4));
+
+        long sequentialTime = 0;
+        for (final int threads : threadCounts) {
+            final List<TaskModel> models = new ArrayList<TaskModel>();
+            Measurement measurement = measure("decoding of " + TASK_COUNT + " tasks in " + threads + " threads",
+                    new Step() {
+                        public void run() throws Exception {
+                            models.clear();
+                            TaskModel readModel = new TaskModel();
+                            new TaskElementReader(threads).read(readModel, elements);
+                            models.add(readModel);
+                        }
+                    });
+            assertEquals(expected, TaskXmlBenchmark.dump(models.get(0)));
+
+            if (threads == 1)
+                sequentialTime = measurement.getTime();
+            System.out.println(threads + " threads of " + processors + " processors: speedup " +
+                    (measurement.getTime() == 0 ? 0 : sequentialTime * 100 / measurement.getTime()) + "%");
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2006 Sergiy Dubovik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dubik.tasks.utils;
+
+import junit.framework.TestCase;
+import org.dubik.tasks.TaskSettings;
+import org.dubik.tasks.model.ITask;
+import org.dubik.tasks.model.ITaskModel;
+import org.dubik.tasks.model.TaskIterator;
+import org.dubik.tasks.model.TaskPriority;
+import org.dubik.tasks.model.impl.TaskModel;
+import org.jdom.Element;
+
+import java.util.List;
+
+/**
+ * Checks that tasks decoded in parallel are the same and in the same order as tasks decoded
+ * in one thread.
+ *
+ * @author Sergiy Dubovik
+ */
+public class TaskElementReaderTest extends TestCase {
+    private static final int[] THREADS = {2, 3, 8, 200};
+
+    public void testSmallestParallelDocument() throws Exception {
+        assertSameTasks(TaskElementReader.MIN_PARALLEL_TASKS);
+    }
+
+    public void testParallelDocument() throws Exception {
+        assertSameTasks(TaskElementReader.MIN_PARALLEL_TASKS * 2 + 1);
+    }
+
+    private void assertSameTasks(int topLevelCount) throws Exception {
+        TaskModel model = createModel(topLevelCount);
+        Element root = new Element("component");
+        SerializeSupport.writeExternal(model, new TaskSettings(), root);
+        List elements = root.getChild(SerializeSupport.TASKS).getChildren();
+
+        TaskModel sequentialModel = new TaskModel();
+        new TaskElementReader(1).read(sequentialModel, elements);
+        assertEquals(dump(model), dump(sequentialModel));
+
+        for (int threads : THREADS) {
+            TaskModel parallelModel = new TaskModel();
+            new TaskElementReader(threads).read(parallelModel, elements);
+            assertEquals(threads + " threads", topLevelCount, parallelModel.size());
+            for (int i = 0; i < topLevelCount; i++) {
+                assertEquals(threads + " threads", sequentialModel.getTask(i).getId(),
+                        parallelModel.getTask(i).getId());
+            }
+            assertEquals(threads + " threads", dump(sequentialModel), dump(parallelModel));
+        }
+    }
+
+    /**
+     * Creates top level tasks with sub trees of different size and depth, so parts are uneven.
+     */
+    private static TaskModel createModel(int topLevelCount) {
+        TaskModel model = new TaskModel();
+        model.beginBatch();
+        for (int i = 0; i < topLevelCount; i++) {
+            ITask task = model.addTask(null, "task " + i, TaskPriority.values()[i % 3], i, i % 7, i,
+                    i % 5 == 0, false);
+            ITask parent = task;
+            for (int j = 0; j < i % 13; j++) {
+                ITask subTask = model.addTask(parent, "task " + i + "." + j, TaskPriority.Normal, j, 0, j,
+                        false, j % 2 == 0);
+                if (j % 3 == 0)
+                    parent = subTask;
+            }
+        }
+        model.endBatch();
+
+        return model;
+    }
+
+    private static String dump(ITaskModel model) {
+        StringBuilder builder = new StringBuilder();
+        for (TaskIterator it = TaskIterator.preOrder(model); it.hasNext();) {
+            ITask task = it.next();
+            builder.append(it.getDepth()).append(':').append(task.getId()).append(',')
+                    .append(task.getTitle()).append(',').append(task.getPriority()).append(',')
+                    .append(task.isCompleted()).append(',').append(task.isHighlighted()).append(',')
+                    .append(task.getActualTime()).append(',').append(task.getEstimatedTime()).append('\n');
+        }
+
+        return builder.toString();
+    }
+}
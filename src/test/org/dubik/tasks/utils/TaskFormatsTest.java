@@ -0,0 +1,136 @@
+/*
+ * Copyright 2006 Sergiy Dubovik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dubik.tasks.utils;
+
+import junit.framework.TestCase;
+import org.dubik.tasks.TaskFileStorage;
+import org.dubik.tasks.TaskSettings;
+import org.dubik.tasks.model.ITask;
+import org.dubik.tasks.model.ITaskModel;
+import org.dubik.tasks.model.TaskIterator;
+import org.dubik.tasks.model.TaskPriority;
+import org.dubik.tasks.model.impl.TaskModel;
+import org.jdom.Element;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.List;
+
+/**
+ * Writes deep hierarchies in every format and reads them back, none of them may need deep stack.
+ *
+ * @author Sergiy Dubovik
+ */
+public class TaskFormatsTest extends TestCase {
+    private static final int DEPTH = 100000;
+    // JDOM checks ancestors of every added element, so the DOM is kept shallower
+    private static final int ELEMENT_DEPTH = 5000;
+
+    public void testXmlRoundTrip() throws Exception {
+        TaskModel model = createChain(new TaskModel(), DEPTH);
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        new TaskXmlWriter(stream).writeDocument(model.snapshot(), new TaskSettings());
+
+        TaskModel readModel = new TaskModel();
+        new TaskXmlReader(readModel, null).read(new ByteArrayInputStream(stream.toByteArray()));
+        assertEquals(dump(model), dump(readModel));
+    }
+
+    public void testBinaryRoundTrip() throws Exception {
+        TaskModel model = createChain(new TaskModel(), DEPTH);
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        TaskBinaryFormat.write(model.snapshot(), new TaskSettings(), stream);
+
+        TaskModel readModel = new TaskModel();
+        TaskBinaryFormat.read(readModel, null, new ByteArrayInputStream(stream.toByteArray()));
+        assertEquals(dump(model), dump(readModel));
+        assertEquals(model.getTask(0).getEstimatedTime(), readModel.getTask(0).getEstimatedTime());
+    }
+
+    public void testDeltaRoundTrip() throws Exception {
+        File directory = File.createTempFile("tasks", "");
+        assertTrue(directory.delete() && directory.mkdir());
+        try {
+            TaskModel model = new TaskModel();
+            TaskFileStorage storage = new TaskFileStorage(model, new TaskSettings(), directory);
+            storage.setJournalLatency(-1);
+            storage.startTracking();
+            // empty snapshot, so the chain goes to delta
+            storage.flush();
+
+            createChain(model, DEPTH);
+            assertEquals(DEPTH + 1, storage.getPendingChangeCount());
+
+            storage.flush();
+            assertEquals(0, storage.getPendingChangeCount());
+            storage.dispose();
+
+            TaskModel readModel = new TaskModel();
+            TaskFileStorage readStorage = new TaskFileStorage(readModel, new TaskSettings(), directory);
+            readStorage.load();
+            readStorage.dispose();
+            assertEquals(dump(model), dump(readModel));
+        } finally {
+            File[] files = directory.listFiles();
+            for (int i = 0; files != null && i < files.length; i++)
+                files[i].delete();
+            directory.delete();
+        }
+    }
+
+    public void testElementRoundTrip() throws Exception {
+        TaskModel model = createChain(new TaskModel(), ELEMENT_DEPTH);
+        Element root = new Element("component");
+        SerializeSupport.writeExternal(model, new TaskSettings(), root);
+        List elements = root.getChild(SerializeSupport.TASKS).getChildren();
+
+        for (int threads = 1; threads <= 2; threads++) {
+            TaskModel readModel = new TaskModel();
+            new TaskElementReader(threads).read(readModel, elements);
+            assertEquals(dump(model), dump(readModel));
+        }
+    }
+
+    /**
+     * Adds a chain of tasks with one more top level task after it in one batch.
+     */
+    private static TaskModel createChain(TaskModel model, int depth) {
+        ITask task = null;
+        model.beginBatch();
+        for (int i = 0; i < depth; i++) {
+            task = model.addTask(task, "task " + i, TaskPriority.values()[i % 3], 1, i % 7, i,
+                    i % 5 == 0, false);
+        }
+        model.addTask(null, "other", TaskPriority.Normal, 1, 0, 0, false, false);
+        model.endBatch();
+
+        return model;
+    }
+
+    private static String dump(ITaskModel model) {
+        StringBuilder builder = new StringBuilder();
+        for (TaskIterator it = TaskIterator.preOrder(model); it.hasNext();) {
+            ITask task = it.next();
+            builder.append(it.getDepth()).append(':').append(task.getId()).append(',')
+                    .append(task.getTitle()).append(',').append(task.getPriority()).append(',')
+                    .append(task.isCompleted()).append(',').append(task.getActualTime()).append(',')
+                    .append(task.getEstimatedTime()).append('\n');
+        }
+
+        return builder.toString();
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2006 Sergiy Dubovik
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dubik.tasks.utils;
+
+import org.dubik.tasks.BenchmarkCase;
+import org.dubik.tasks.TaskSettings;
+import org.dubik.tasks.model.ITask;
+import org.dubik.tasks.model.ITaskModel;
+import org.dubik.tasks.model.TaskIterator;
+import org.dubik.tasks.model.TaskPriority;
+import org.dubik.tasks.model.impl.TaskModel;
+import org.jdom.Document;
+import org.jdom.Element;
+import org.jdom.input.SAXBuilder;
+import org.jdom.output.Format;
+import org.jdom.output.XMLOutputter;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares time and peak heap of writing and reading tasks.xml through JDOM and through
+ * the streaming writer and reader.
+ *
+ * @author Sergiy Dubovik
+ */
+public class TaskXmlBenchmark extends BenchmarkCase {
+    private static final int TASK_COUNT = Integer.getInteger("benchmark.tasks", 100000);
+
+    private TaskModel model;
+    private TaskSettings settings = new TaskSettings();
+    private File file;
+
+    protected void setUp() throws Exception {
+        model = createModel(TASK_COUNT);
+        file = File.createTempFile("tasks", ".xml");
+    }
+
+    protected void tearDown() throws Exception {
+        file.delete();
+    }
+
+    public void testWrite() throws Exception {
+        Measurement dom = measure("JDOM write of " + TASK_COUNT + " tasks", new Step() {
+            public void run() throws Exception {
+                Element component = new Element(SerializeSupport.COMPONENT);
+                component.setAttribute(SerializeSupport.COMPONENT_NAME, SerializeSupport.STORAGE_COMPONENT_NAME);
+                SerializeSupport.writeExternal(model, settings, component);
+                Element application = new Element(SerializeSupport.APPLICATION);
+                application.addContent(component);
+
+                OutputStream stream = new FileOutputStream(file);
+                try {
+                    new XMLOutputter(Format.getPrettyFormat()).output(new Document(application), stream);
+                } finally {
+                    stream.close();
+                }
+            }
+        });
+        assertEquals(dump(model), dump(readStreaming()));
+
+        Measurement streaming = measure("streaming write of " + TASK_COUNT + " tasks", new Step() {
+            public void run() throws Exception {
+                OutputStream stream = new FileOutputStream(file);
+                try {
+                    SerializeSupport.writeTasks(model.snapshot(), settings, stream);
+                } finally {
+                    stream.close();
+                }
+            }
+        });
+        assertEquals(dump(model), dump(readStreaming()));
+
+        System.out.println("streaming write takes " + percentOf(streaming.getTime(), dom.getTime()) +
+                "% of time and " + percentOf(streaming.getHeap(), dom.getHeap()) + "% of heap");
+    }
+
+    public void testRead() throws Exception {
+        OutputStream stream = new FileOutputStream(file);
+        try {
+            SerializeSupport.writeTasks(model.snapshot(), settings, stream);
+        } finally {
+            stream.close();
+        }
+
+        final List<TaskModel> models = new ArrayList<TaskModel>();
+        Measurement dom = measure("JDOM read of " + TASK_COUNT + " tasks", new Step() {
+            public void run() throws Exception {
+                InputStream stream = new BufferedInputStream(new FileInputStream(file));
+                try {
+                    Document document = new SAXBuilder().build(stream);
+                    TaskModel readModel = new TaskModel();
+                    SerializeSupport.readExternal(readModel, new TaskSettings(),
+                            document.getRootElement().getChild(SerializeSupport.COMPONENT));
+                    models.add(readModel);
+                } finally {
+                    stream.close();
+                }
+            }
+        });
+        assertEquals(dump(model), dump(models.get(0)));
+        models.clear();
+
+        Measurement streaming = measure("streaming read of " + TASK_COUNT + " tasks", new Step() {
+            public void run() throws Exception {
+                models.add(readStreaming());
+            }
+        });
+        assertEquals(dump(model), dump(models.get(0)));
+
+        System.out.println("streaming read takes " + percentOf(streaming.getTime(), dom.getTime()) +
+                "% of time and " + percentOf(streaming.getHeap(), dom.getHeap()) + "% of heap");
+    }
+
+    private TaskModel readStreaming() throws IOException {
+        InputStream stream = new FileInputStream(file);
+        try {
+            TaskModel readModel = new TaskModel();
+            SerializeSupport.readTasks(readModel, new TaskSettings(), stream);
+            return readModel;
+        } finally {
+            stream.close();
+        }
+    }
+
+    /**
+     * Creates model where every fourth task is a top level one, others are sub tasks of random tasks.
+     */
+    static TaskModel createModel(int count) {
+        Random random = new Random(1);
+        TaskModel model = new TaskModel();
+        List<ITask> tasks = new ArrayList<ITask>(count);
+        TaskPriority[] priorities = TaskPriority.values();
+        model.beginBatch();
+        for (int i = 0; i < count; i++) {
+            ITask parent = tasks.isEmpty() || i % 4 == 0 ? null : tasks.get(random.nextInt(tasks.size()));
+            tasks.add(model.addTask(parent, "task <" + i + "> & \"title\"", priorities[i % priorities.length],
+                    random.nextInt(100), random.nextInt(100), i, i % 3 == 0, i % 7 == 0));
+        }
+        model.endBatch();
+
+        return model;
+    }
+
+    static String dump(ITaskModel model) {
+        StringBuilder builder = new StringBuilder();
+        for (TaskIterator it = TaskIterator.preOrder(model); it.hasNext();) {
+            ITask task = it.next();
+            builder.append(it.getDepth()).append(':').append(task.getId()).append(',')
+                    .append(task.getTitle()).append(',').append(task.getPriority()).append(',')
+                    .append(task.isCompleted()).append(',').append(task.isHighlighted()).append(',')
+                    .append(task.getActualTime()).append(',').append(task.getEstimatedTime()).append(',')
+                    .append(task.getCreationTime()).append('\n');
+        }
+
+        return builder.toString();
+    }
+
+    private static long percentOf(long value, long total) {
+        return total == 0 ? 0 : value * 100 / total;
+    }
+}